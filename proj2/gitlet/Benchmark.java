@@ -0,0 +1,413 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** A developer class whose main program measures parts of gitlet, and may
+ *  be invoked as follows:
+ *      java gitlet.Benchmark NAME [ARG...]
+ *  where NAME is one of
+ *      pack-index [N...]  Resolves abbreviated commit ids among N commits,
+ *                         stored loose (directory scan) and in a pack index.
+ *                         N defaults to 10000 100000 1000000.
+ *      compression [N]    Stores a synthetic corpus of N source-like text
+ *                         files as raw and as deflated blobs, and compares
+ *                         write throughput and size on disk. N defaults
+ *                         to 2000.
+ *      compare [MB...]    Compares large random binary files that differ
+ *                         only in their last byte, by decoding both to
+ *                         Strings and by the byte-level comparison of
+ *                         Blob. MB defaults to 16 256.
+ *      merge-base [N...]  Finds split points of a branch and a commit up
+ *                         to 100 commits behind another branch's head, in
+ *                         a synthetic commit graph of N commits on 16
+ *                         branches that often merge each other, by a full
+ *                         ancestor set and by the generation-ordered walk
+ *                         of CommitGraph. N defaults to 100000.
+ *      bloom [N...]       Checks for blobs that don't exist among N loose
+ *                         blobs, by file and pack lookups and through the
+ *                         Bloom filter, and counts false positives. N
+ *                         defaults to 10000 100000.
+ *      transfer [N]       Copies a commit of N random 32 KB files to an
+ *                         empty repository with one blob copying thread
+ *                         and with Transfer.WORKERS threads, and reports
+ *                         throughput. N defaults to 2000.
+ *      line-merge [N...]  Merges two versions of a file of N lines, each
+ *                         with an edited, inserted or deleted line every
+ *                         100 lines that the other didn't touch, line by
+ *                         line. N defaults to 100000 1000000.
+ *  Every benchmark works in a fresh temporary directory, and prints one
+ *  line of timings per case.
+ *  @author xianzhe233
+ */
+public class Benchmark {
+
+    /** Number of lookups or operations timed per case. */
+    private static final int ROUNDS = 2000;
+
+    /** Runs the benchmark named ARGS[0] with the rest of ARGS. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.Benchmark NAME [ARG...]");
+            return;
+        }
+        String[] rest = Arrays.copyOfRange(args, 1, args.length);
+        switch (args[0]) {
+            case "pack-index":
+                packIndex(sizes(rest, 10000, 100000, 1000000));
+                break;
+            case "compression":
+                compression(sizes(rest, 2000)[0]);
+                break;
+            case "compare":
+                compare(sizes(rest, 16, 256));
+                break;
+            case "merge-base":
+                mergeBase(sizes(rest, 100000));
+                break;
+            case "bloom":
+                bloom(sizes(rest, 10000, 100000));
+                break;
+            case "transfer":
+                transfer(sizes(rest, 2000)[0]);
+                break;
+            case "line-merge":
+                lineMerge(sizes(rest, 100000, 1000000));
+                break;
+            default:
+                System.out.println("No benchmark with that name exists.");
+        }
+    }
+
+    /** Times resolving abbreviated commit ids by directory scan and by pack index. */
+    private static void packIndex(int[] sizes) throws IOException {
+        for (int n : sizes) {
+            File dir = Files.createTempDirectory("gitlet-bench").toFile();
+            File looseCommitDir = join(dir, "loose", "commits");
+            File packedCommitDir = join(dir, "packed", "commits");
+            File packDir = Pack.packDirOf(packedCommitDir);
+            packDir.mkdirs();
+
+            List<String> ids = new ArrayList<>();
+            TreeMap<String, Byte> objects = new TreeMap<>();
+            for (int i = 0; i < n; i += 1) {
+                String id = sha1(String.valueOf(i));
+                ids.add(id);
+                objects.put(id, Pack.COMMIT);
+                File subDir = join(looseCommitDir, Commit.idHead(id));
+                subDir.mkdirs();
+                createFile(join(subDir, Commit.idTail(id)));
+            }
+            Pack.write(join(packDir, "pack-bench.pack"), join(packDir, "pack-bench.idx"),
+                    objects, false, new HashMap<>(), id -> new byte[0]);
+
+            Random random = new Random(n);
+            String[] prefixes = new String[ROUNDS];
+            for (int i = 0; i < ROUNDS; i += 1) {
+                prefixes[i] = ids.get(random.nextInt(n)).substring(0, 8);
+            }
+            double scan = time(() -> {
+                for (String prefix : prefixes) {
+                    Commit.fullId(looseCommitDir, prefix);
+                }
+            });
+            double packed = time(() -> {
+                for (String prefix : prefixes) {
+                    Commit.fullId(packedCommitDir, prefix);
+                }
+            });
+            System.out.printf("pack-index N=%d: directory scan %.2f us/lookup,"
+                    + " pack index %.2f us/lookup%n", n, scan, packed);
+            delete(dir);
+        }
+    }
+
+    /** Times storing N synthetic text files as raw and as deflated blobs. */
+    private static void compression(int n) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File corpusDir = join(dir, "corpus");
+        corpusDir.mkdirs();
+        Random random = new Random(n);
+        String[] words = {"int", "return", "static", "final", "String", "if", "else",
+            "for", "while", "new", "File", "commit", "blob", "id", "=", "+", "(", ")",
+            "{", "}", ";", "null", "true", "false", "this", "void", "private", "i"};
+        List<File> files = new ArrayList<>();
+        long corpusBytes = 0;
+        for (int i = 0; i < n; i += 1) {
+            StringBuilder content = new StringBuilder();
+            int lines = 200 + random.nextInt(1000);
+            for (int line = 0; line < lines; line += 1) {
+                content.append("    ".repeat(random.nextInt(4)));
+                for (int w = random.nextInt(10); w >= 0; w -= 1) {
+                    content.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                content.append(random.nextInt(100000)).append('\n');
+            }
+            File file = join(corpusDir, "file" + i + ".java");
+            writeContents(file, content.toString());
+            files.add(file);
+            corpusBytes += file.length();
+        }
+
+        for (boolean compressed : new boolean[] {false, true}) {
+            File gitletDir = join(dir, compressed ? "deflate" : "raw", ".gitlet");
+            File blobDir = join(gitletDir, "blobs");
+            blobDir.mkdirs();
+            Config.initConfig(gitletDir, compressed);
+            long start = System.nanoTime();
+            for (File file : files) {
+                Blob.createBlob(blobDir, file);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long diskBytes = 0;
+            for (File blobFile : blobDir.listFiles()) {
+                diskBytes += blobFile.length();
+            }
+            System.out.printf("compression %s: %d files, %.1f MB in %.2f s (%.1f MB/s),"
+                    + " %.1f MB on disk (%.0f%%)%n", compressed ? "deflate" : "raw", n,
+                    corpusBytes / 1e6, seconds, corpusBytes / 1e6 / seconds,
+                    diskBytes / 1e6, 100.0 * diskBytes / corpusBytes);
+        }
+        delete(dir);
+    }
+
+    /** Times comparing two binary files of each size in MB as Strings and as bytes. */
+    private static void compare(int[] sizes) throws IOException {
+        int rounds = 5;
+        for (int mb : sizes) {
+            File dir = Files.createTempDirectory("gitlet-bench").toFile();
+            File file1 = join(dir, "file1");
+            File file2 = join(dir, "file2");
+            byte[] content = new byte[mb << 20];
+            new Random(mb).nextBytes(content);
+            writeContents(file1, content);
+            content[content.length - 1] ^= 1;
+            writeContents(file2, content);
+            content = null;
+
+            boolean[] results = new boolean[2];
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i += 1) {
+                results[0] = readContentsAsString(file1).equals(readContentsAsString(file2));
+            }
+            double strings = (System.nanoTime() - start) / 1e6 / rounds;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i += 1) {
+                results[1] = Blob.sameContent(file1, file2);
+            }
+            double bytes = (System.nanoTime() - start) / 1e6 / rounds;
+            System.out.printf("compare %d MB: Strings %.1f ms (equal: %b),"
+                    + " bytes %.1f ms (equal: %b)%n", mb, strings, results[0], bytes, results[1]);
+            delete(dir);
+        }
+    }
+
+    /** Times finding split points in a synthetic commit graph of each size. */
+    private static void mergeBase(int[] sizes) throws IOException {
+        int branches = 16;
+        int rounds = 200;
+        for (int n : sizes) {
+            File dir = Files.createTempDirectory("gitlet-bench").toFile();
+            File commitDir = join(dir, ".gitlet", "commits");
+            commitDir.mkdirs();
+            CommitGraph graph = CommitGraph.of(commitDir);
+            Random random = new Random(n);
+            String[] heads = new String[branches];
+            String initial = sha1("initial");
+            graph.add(initial, null, null, 0);
+            Arrays.fill(heads, initial);
+            long start = System.nanoTime();
+            for (int i = 1; i < n; i += 1) {
+                int branch = random.nextInt(branches);
+                int other = random.nextInt(branches);
+                String merged = null;
+                if (other != branch && random.nextInt(10) == 0) {
+                    merged = heads[other];
+                }
+                String id = sha1(String.valueOf(i));
+                graph.add(id, heads[branch], merged, i * 1000L);
+                heads[branch] = id;
+            }
+            double building = (System.nanoTime() - start) / 1e9;
+
+            // Merges one branch into another, as of some point in the history.
+            int[][] pairs = new int[rounds][];
+            for (int i = 0; i < rounds; i += 1) {
+                int p1 = graph.position(heads[i % branches]);
+                int p2 = graph.position(heads[(i + 1 + random.nextInt(branches - 1)) % branches]);
+                for (int back = random.nextInt(100); back > 0 && graph.parent(p2) >= 0; back -= 1) {
+                    p2 = graph.parent(p2);
+                }
+                pairs[i] = new int[] {p1, p2};
+            }
+            Runnable byAncestorSet = () -> {
+                for (int[] pair : pairs) {
+                    BitSet ancestors = graph.ancestorPositions(graph.id(pair[0]));
+                    int p = pair[1];
+                    while (!ancestors.get(p)) {
+                        p = graph.parent(p);
+                    }
+                }
+            };
+            Runnable byGenerations = () -> {
+                for (int[] pair : pairs) {
+                    graph.mergeBases(pair[0], pair[1]);
+                }
+            };
+            double ancestorSet = time(byAncestorSet) * ROUNDS / rounds;
+            double generations = time(byGenerations) * ROUNDS / rounds;
+            System.out.printf("merge-base N=%d: graph built in %.2f s, ancestor set"
+                    + " %.1f us/merge, generation walk %.1f us/merge%n",
+                    n, building, ancestorSet, generations);
+            delete(dir);
+        }
+    }
+
+    /** Times checking for missing blobs among N loose blobs, with and without the filter. */
+    private static void bloom(int[] sizes) throws IOException {
+        for (int n : sizes) {
+            File dir = Files.createTempDirectory("gitlet-bench").toFile();
+            File blobDir = join(dir, "blobs");
+            blobDir.mkdirs();
+            for (int i = 0; i < n; i += 1) {
+                createFile(join(blobDir, sha1("blob" + i)));
+            }
+            String[] missing = new String[ROUNDS];
+            for (int i = 0; i < ROUNDS; i += 1) {
+                missing[i] = sha1("missing" + i);
+            }
+            File packDir = Pack.packDirOf(blobDir);
+            double lookup = time(() -> {
+                for (String id : missing) {
+                    if (join(blobDir, id).exists() || Pack.contains(packDir, id)) {
+                        throw new IllegalStateException(id);
+                    }
+                }
+            });
+            double filtered = time(() -> {
+                for (String id : missing) {
+                    if (Blob.exists(blobDir, id)) {
+                        throw new IllegalStateException(id);
+                    }
+                }
+            });
+            int falsePositives = 0;
+            for (String id : missing) {
+                falsePositives += Bloom.mightExist(blobDir, id) ? 1 : 0;
+            }
+            System.out.printf("bloom N=%d: lookups %.2f us/check, bloom filter %.2f us/check,"
+                    + " %.1f%% false positives%n",
+                    n, lookup, filtered, 100.0 * falsePositives / ROUNDS);
+            delete(dir);
+        }
+    }
+
+    /** Times copying a commit of N files to empty repositories with
+     *  different numbers of threads. */
+    private static void transfer(int n) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File fromDir = join(dir, "from", ".gitlet");
+        File blobDir = join(fromDir, "blobs");
+        blobDir.mkdirs();
+        Config.initConfig(fromDir, false);
+        Random random = new Random(n);
+        byte[] content = new byte[32 << 10];
+        HashMap<String, String> files = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            random.nextBytes(content);
+            File file = join(dir, "file");
+            writeContents(file, content);
+            files.put("file" + i, Blob.createBlob(blobDir, file));
+        }
+        String tree = Tree.build(Tree.treeDirOf(fromDir), files);
+        Commit commit = new Commit(sha1("transfer" + n), null, null, 0, "transfer", tree, null, 0);
+        File commitDir = join(fromDir, "commits", Commit.idHead(commit.id));
+        commitDir.mkdirs();
+        Bloom.added(commitDir.getParentFile(), commit.id);
+        writeContents(join(commitDir, Commit.idTail(commit.id)), CommitCodec.encode(commit));
+
+        for (int workers : new int[] {1, Transfer.WORKERS}) {
+            File toDir = join(dir, "to" + workers, ".gitlet");
+            join(toDir, "blobs").mkdirs();
+            Config.initConfig(toDir, false);
+            Transfer transfer = new Transfer(fromDir, toDir, workers);
+            transfer.copy(List.of(commit.id));
+            System.out.printf("transfer N=%d, %d threads: %s%n", n, workers, transfer.report());
+        }
+        delete(dir);
+    }
+
+    /** Times merging versions of a file of each size with scattered edits. */
+    private static void lineMerge(int[] sizes) throws IOException {
+        for (int n : sizes) {
+            Random random = new Random(n);
+            StringBuilder base = new StringBuilder();
+            StringBuilder ours = new StringBuilder();
+            StringBuilder theirs = new StringBuilder();
+            for (int i = 0; i < n; i += 1) {
+                String line = "line " + i + " " + random.nextLong() + "\n";
+                base.append(line);
+                int edit = i % 100;
+                ours.append(edit == 10 ? "ours " + line : edit == 60 ? "" : line);
+                theirs.append(edit == 40 ? "theirs " + line : line);
+                if (edit == 80) {
+                    theirs.append("inserted ").append(line);
+                }
+            }
+            byte[][] versions = {base.toString().getBytes(StandardCharsets.UTF_8),
+                ours.toString().getBytes(StandardCharsets.UTF_8),
+                theirs.toString().getBytes(StandardCharsets.UTF_8)};
+            ByteArrayOutputStream out = new ByteArrayOutputStream(versions[0].length * 2);
+            int conflicts = LineMerge.merge(versions[0], versions[1], versions[2], out);
+            int rounds = 5;
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round += 1) {
+                out.reset();
+                LineMerge.merge(versions[0], versions[1], versions[2], out);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9 / rounds;
+            System.out.printf("line-merge N=%d: %.1f MB, %d edits per side, %d conflicts,"
+                    + " %.1f ms (%.1f MB/s)%n", n, versions[0].length / 1e6, n / 50,
+                    conflicts, seconds * 1e3, versions[0].length / 1e6 / seconds);
+        }
+    }
+
+    /** Returns the microseconds per operation of running ROUNDS operations
+     *  in BODY, after running it once to warm up. */
+    private static double time(Runnable body) {
+        body.run();
+        long start = System.nanoTime();
+        body.run();
+        return (System.nanoTime() - start) / 1000.0 / ROUNDS;
+    }
+
+    /** Returns ARGS as integers, or DEFAULTS if ARGS is empty. */
+    private static int[] sizes(String[] args, int... defaults) {
+        if (args.length == 0) {
+            return defaults;
+        }
+        return Stream.of(args).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /** Deletes DIR and everything in it. */
+    private static void delete(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -1,6 +1,22 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static gitlet.Utils.*;
 
@@ -10,27 +26,88 @@ public class Blob {
      */
     static final File BLOBS_DIR = join(Repository.GITLET_DIR, "blobs");
 
+    /**
+     * Size of the buffer that file contents are streamed through.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Size of the regions of two files that are memory-mapped at a time
+     * when comparing them.
+     */
+    private static final long MAP_SIZE = 1L << 26;
+
     /**
      * Returns SHA-1 id of file.
      */
     static String blobHash(File file) {
-        String fileContent = readContentsAsString(file);
-        return sha1(fileContent);
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return copyAndHash(in, OutputStream.nullOutputStream());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /**
      * Creates a blob and returns its id.
      */
     static String createBlob(File file) {
-        String id = blobHash(file);
-        if (!exists(id)) {
-            File blobFile = join(BLOBS_DIR, id);
-            createFile(blobFile);
-            writeContents(blobFile, readContentsAsString(file));
+        return createBlob(BLOBS_DIR, file);
+    }
+
+    static String createBlob(File blobDir, File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return store(blobDir, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Stores everything read from in as a blob in blobDir, returns its id.
+     * The content is read only once: it's hashed while being written to a
+     * temporary file (deflated if the repository is compressed), which is
+     * then renamed to the blob id, so memory use doesn't grow with the size.
+     */
+    private static String store(File blobDir, InputStream in) throws IOException {
+        Path tempFile = File.createTempFile("tmp-", null, blobDir).toPath();
+        String id;
+        OutputStream tempOut = Files.newOutputStream(tempFile);
+        if (Config.isCompressed(blobDir.getParentFile())) {
+            tempOut = new DeflaterOutputStream(tempOut, new Deflater(), BUFFER_SIZE);
+        }
+        try (OutputStream out = tempOut) {
+            id = copyAndHash(in, out);
+        }
+        if (exists(blobDir, id)) {
+            Files.delete(tempFile);
+        } else {
+            Bloom.added(blobDir, id);
+            Files.move(tempFile, join(blobDir, id).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Journal.added(join(blobDir, id));
         }
         return id;
     }
 
+    /**
+     * Copies everything from in to out through a fixed-size buffer,
+     * returns SHA-1 id of the content.
+     */
+    private static String copyAndHash(InputStream in, OutputStream out) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            md.update(buffer, 0, n);
+            out.write(buffer, 0, n);
+        }
+        return bytesToHex(md.digest(), 0, UID_LENGTH / 2);
+    }
+
     /**
      * Removes a blob file.
      */
@@ -42,20 +119,115 @@ public class Blob {
     }
 
     /**
-     * Returns if a blob with id exists.
+     * Returns if a blob with id exists, either loose or packed. Most blobs
+     * that don't exist are ruled out by the Bloom filter without a lookup.
      */
     static boolean exists(String id) {
-        return join(BLOBS_DIR, id).exists();
+        return exists(BLOBS_DIR, id);
+    }
+
+    static boolean exists(File blobDir, String id) {
+        return Bloom.mightExist(blobDir, id)
+                && (join(blobDir, id).exists() || Pack.contains(Pack.packDirOf(blobDir), id));
     }
 
     /**
-     * Gets the blob file by id.
+     * Gets the content of blob by id.
      */
-    static File get(String id) {
+    static byte[] get(String id) {
         return get(BLOBS_DIR, id);
     }
 
-    static File get(File blobDir, String id) {
+    static byte[] get(File blobDir, String id) {
+        try (InputStream in = open(blobDir, id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Opens a stream of the content of blob by id, inflating it if it's stored
+     * compressed. The caller closes the stream.
+     */
+    static InputStream open(String id) {
+        return open(BLOBS_DIR, id);
+    }
+
+    static InputStream open(File blobDir, String id) {
+        File blobFile = getFile(blobDir, id);
+        if (blobFile == null) {
+            byte[] content = Pack.read(Pack.packDirOf(blobDir), id);
+            if (content == null) {
+                throw new IllegalArgumentException("blob " + id + " not found");
+            }
+            return new ByteArrayInputStream(content);
+        }
+        try {
+            InputStream in = Files.newInputStream(blobFile.toPath());
+            if (Config.isCompressed(blobDir.getParentFile())) {
+                in = new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+            }
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes the content of blob by id to out.
+     */
+    static void writeTo(String id, OutputStream out) {
+        try (InputStream in = open(id)) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copies a blob from fromDir to toDir, unless toDir already has it.
+     * The loose file is copied directly if both repositories store blobs
+     * the same way, otherwise the content is stored again in toDir's format.
+     * Returns the number of bytes written, 0 if toDir already had the blob.
+     * Blobs can be copied by several threads at once.
+     */
+    static long copy(File fromDir, File toDir, String id) {
+        if (exists(toDir, id)) {
+            return 0;
+        }
+        File fromFile = getFile(fromDir, id);
+        try {
+            if (fromFile != null && Config.isCompressed(fromDir.getParentFile())
+                    == Config.isCompressed(toDir.getParentFile())) {
+                Path tempFile = File.createTempFile("tmp-", null, toDir).toPath();
+                Files.copy(fromFile.toPath(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+                Bloom.added(toDir, id);
+                Files.move(tempFile, join(toDir, id).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                Journal.added(join(toDir, id));
+            } else {
+                try (InputStream in = open(fromDir, id)) {
+                    store(toDir, in);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return join(toDir, id).length();
+    }
+
+    /**
+     * Gets the content of blob by id as a String.
+     */
+    static String getAsString(String id) {
+        return new String(get(id), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the loose blob file by id, returns null if the blob is not loose.
+     */
+    static File getFile(File blobDir, String id) {
         File blobFile = join(blobDir, id);
         if (blobFile.exists()) {
             return blobFile;
@@ -65,12 +237,38 @@ public class Blob {
     }
 
     /**
-     * Returns if file has the same content as blob.
+     * Returns if file has the same content as blob, by comparing blob ids.
+     * The file's id comes from the stat index if the file is unchanged since
+     * it was last hashed, otherwise the file is hashed once and not read again.
      */
     static boolean equals(String blobId, File file) {
-        String blobContent = readContentsAsString(get(blobId));
-        String fileContent = readContentsAsString(file);
-        return blobContent.equals(fileContent);
+        return blobId.equals(StatIndex.blobIdOf(file));
+    }
+
+    /**
+     * Returns if two files have the same bytes. Sizes are compared first,
+     * then the files are memory-mapped region by region and compared with
+     * mismatch, so contents are never copied onto the heap.
+     */
+    static boolean sameContent(File file1, File file2) {
+        try (FileChannel channel1 = FileChannel.open(file1.toPath());
+             FileChannel channel2 = FileChannel.open(file2.toPath())) {
+            long size = channel1.size();
+            if (size != channel2.size()) {
+                return false;
+            }
+            for (long pos = 0; pos < size; pos += MAP_SIZE) {
+                long length = Math.min(MAP_SIZE, size - pos);
+                MappedByteBuffer region1 = channel1.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                MappedByteBuffer region2 = channel2.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                if (region1.mismatch(region2) != -1) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
 }
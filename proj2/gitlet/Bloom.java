@@ -0,0 +1,330 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/**
+ * Bloom is a bloom filter of the ids of all objects (commits, trees and
+ * blobs) of a repository, so that checking for an object that doesn't
+ * exist, the common case when storing or copying objects, usually needs
+ * no file system or pack lookup. A filter never says an object it has is
+ * missing, and says an object it doesn't have might exist about 1% of the
+ * time, in which case the object is looked up as before.
+ *
+ * The filter is saved in the bloom file. An object's id is added before
+ * the object is moved into place, so the filter has every object that
+ * exists: new ids are appended to the file, and their bits are set when
+ * the file is read. gc writes a new filter sized for all objects, and so
+ * does adding more objects than the filter was sized for, or using a
+ * repository that has no filter yet.
+ *
+ * File: "GBLM" | version | build (8 bytes) | capacity | number of hashes
+ *       | number of longs | number of ids in bits | bits (longs) | added id...
+ * Build is a random number that tells a file that was written again
+ * apart from one that was only appended to.
+ * Ids are raw 20-byte SHA-1s. A file with a partly written id is built again. The
+ * hashes of an id are combinations of its first two 8-byte words, which
+ * are already uniformly distributed.
+ *
+ * @author xianzhe233
+ */
+public class Bloom {
+    private static final int MAGIC = 0x47424c4d; // "GBLM"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 6 * Integer.BYTES + Long.BYTES;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /**
+     * Bits per object and number of hashes, for about 1% false positives.
+     */
+    private static final int BITS_PER_ID = 10;
+    private static final int HASHES = 7;
+    private static final int MIN_CAPACITY = 1024;
+
+    /**
+     * Filters that have been loaded, by .gitlet directory.
+     */
+    private static final Map<File, Bloom> LOADED = new HashMap<>();
+    /**
+     * Loaded filters by object directory, as given, to skip normalizing paths.
+     */
+    private static final Map<File, Bloom> BY_OBJECT_DIR = new HashMap<>();
+
+    private final File gitletDir;
+    private final File bloomFile;
+    private long build;
+    private int capacity;
+    private long[] bits;
+    /**
+     * Number of ids in the filter, and length of the file when it was last read.
+     */
+    private int count;
+    private long fileLength;
+    /**
+     * If the file must be checked for ids added by other processes before
+     * the filter is used again.
+     */
+    private boolean stale = false;
+
+    private Bloom(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.bloomFile = join(gitletDir, "bloom");
+        if (!read()) {
+            rebuild(allObjects(gitletDir));
+        }
+    }
+
+    /**
+     * Returns the filter of the repository at gitletDir.
+     */
+    static synchronized Bloom of(File gitletDir) {
+        Bloom bloom = LOADED.computeIfAbsent(Journal.keyOf(gitletDir), Bloom::new);
+        if (bloom.stale) {
+            bloom.refresh();
+        }
+        return bloom;
+    }
+
+    /**
+     * Returns if the object id might exist in the repository that has
+     * objectDir, its commits, trees or blobs directory.
+     */
+    static boolean mightExist(File objectDir, String id) {
+        return id.length() != UID_LENGTH || ofObjectDir(objectDir).mightContain(id);
+    }
+
+    /**
+     * Adds object id to the filter of the repository that has objectDir.
+     * Call this before the object's file is in place.
+     */
+    static void added(File objectDir, String id) {
+        ofObjectDir(objectDir).add(id);
+    }
+
+    private static synchronized Bloom ofObjectDir(File objectDir) {
+        Bloom bloom = BY_OBJECT_DIR.get(objectDir);
+        if (bloom == null) {
+            bloom = of(objectDir.getParentFile());
+            BY_OBJECT_DIR.put(objectDir, bloom);
+        } else if (bloom.stale) {
+            bloom.refresh();
+        }
+        return bloom;
+    }
+
+    /**
+     * Marks every loaded filter to be checked against its file before it's
+     * used again, since other processes may have added objects.
+     */
+    static synchronized void recheck() {
+        for (Bloom bloom : LOADED.values()) {
+            bloom.stale = true;
+        }
+    }
+
+    /**
+     * Saves a new filter of ids, all objects of the repository at gitletDir.
+     */
+    static synchronized void rebuild(File gitletDir, Collection<String> ids) {
+        File key = Journal.keyOf(gitletDir);
+        Bloom bloom = LOADED.get(key);
+        if (bloom != null) {
+            bloom.rebuild(ids);
+        } else {
+            LOADED.put(key, new Bloom(key, ids));
+        }
+    }
+
+    private Bloom(File gitletDir, Collection<String> ids) {
+        this.gitletDir = gitletDir;
+        this.bloomFile = join(gitletDir, "bloom");
+        rebuild(ids);
+    }
+
+    synchronized boolean mightContain(String id) {
+        return check(id, false);
+    }
+
+    /**
+     * Adds id to the filter and appends it to the file.
+     */
+    synchronized void add(String id) {
+        if (mightContain(id)) {
+            return;
+        }
+        if (count >= capacity) {
+            List<String> ids = allObjects(gitletDir);
+            ids.add(id);
+            rebuild(ids);
+            return;
+        }
+        set(id);
+        count += 1;
+        try (FileChannel channel = FileChannel.open(bloomFile.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            fileLength += channel.write(ByteBuffer.wrap(hexToBytes(id)));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.added(bloomFile);
+    }
+
+    private void set(String id) {
+        check(id, true);
+    }
+
+    /**
+     * Returns if all bits of id were set, and sets them if set is true.
+     */
+    private boolean check(String id, boolean set) {
+        long h1 = Long.parseUnsignedLong(id, 0, 16, 16);
+        long h2 = Long.parseUnsignedLong(id, 16, 32, 16);
+        long size = (long) bits.length * Long.SIZE;
+        boolean all = true;
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            long mask = 1L << bit;
+            if ((bits[(int) (bit >>> 6)] & mask) == 0) {
+                if (!set) {
+                    return false;
+                }
+                all = false;
+                bits[(int) (bit >>> 6)] |= mask;
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Reads the filter file, returns false if it's missing or unreadable.
+     */
+    private boolean read() {
+        if (!bloomFile.exists()) {
+            return false;
+        }
+        ByteBuffer in = ByteBuffer.wrap(readContents(bloomFile));
+        if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            return false;
+        }
+        build = in.getLong();
+        capacity = in.getInt();
+        int hashes = in.getInt();
+        int longs = in.getInt();
+        count = in.getInt();
+        if (hashes != HASHES || longs <= 0 || in.remaining() < longs * Long.BYTES
+                || (in.remaining() - longs * Long.BYTES) % ID_BYTES != 0) {
+            return false;
+        }
+        bits = new long[longs];
+        in.asLongBuffer().get(bits);
+        in.position(in.position() + longs * Long.BYTES);
+        fileLength = in.position() + readAdded(in);
+        return true;
+    }
+
+    /**
+     * Sets the bits of the ids appended from in's position on, returns the
+     * number of bytes read.
+     */
+    private int readAdded(ByteBuffer in) {
+        byte[] id = new byte[ID_BYTES];
+        int start = in.position();
+        while (in.remaining() >= ID_BYTES) {
+            in.get(id);
+            set(bytesToHex(id, 0, ID_BYTES));
+            count += 1;
+        }
+        return in.position() - start;
+    }
+
+    /**
+     * Reads ids appended by other processes, or the whole file if it was
+     * written again.
+     */
+    private synchronized void refresh() {
+        stale = false;
+        long length = bloomFile.length();
+        if (length == fileLength) {
+            return;
+        }
+        if (length > fileLength && (length - fileLength) % ID_BYTES == 0) {
+            try (FileChannel channel = FileChannel.open(bloomFile.toPath())) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                channel.read(header, 0);
+                header.flip();
+                if (header.getInt() == MAGIC && header.getInt() == VERSION
+                        && header.getLong() == build) {
+                    ByteBuffer added = ByteBuffer.allocate((int) (length - fileLength));
+                    channel.read(added, fileLength);
+                    added.flip();
+                    fileLength += readAdded(added);
+                    return;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        if (!read()) {
+            rebuild(allObjects(gitletDir));
+        }
+    }
+
+    /**
+     * Makes a filter of ids with room for as many again, and saves it.
+     */
+    private void rebuild(Collection<String> ids) {
+        capacity = Math.max(MIN_CAPACITY, ids.size() * 2);
+        bits = new long[(int) (((long) capacity * BITS_PER_ID + Long.SIZE - 1) / Long.SIZE)];
+        for (String id : ids) {
+            set(id);
+        }
+        count = ids.size();
+        build = new Random().nextLong();
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + bits.length * Long.BYTES);
+        out.putInt(MAGIC).putInt(VERSION).putLong(build).putInt(capacity).putInt(HASHES)
+                .putInt(bits.length).putInt(count);
+        out.asLongBuffer().put(bits);
+        Journal.saveObject(gitletDir, bloomFile, out.array());
+        fileLength = out.capacity();
+    }
+
+    /**
+     * Returns the ids of all objects of the repository at gitletDir, loose or packed.
+     */
+    private static List<String> allObjects(File gitletDir) {
+        List<String> ids = new ArrayList<>();
+        File[] commitSubDirs = join(gitletDir, "commits").listFiles(File::isDirectory);
+        if (commitSubDirs != null) {
+            for (File subDir : commitSubDirs) {
+                for (String tail : plainFilenamesIn(subDir)) {
+                    ids.add(subDir.getName() + tail);
+                }
+            }
+        }
+        for (String dirName : List.of("blobs", "trees")) {
+            List<String> names = plainFilenamesIn(join(gitletDir, dirName));
+            if (names != null) {
+                for (String name : names) {
+                    if (name.length() == UID_LENGTH) {
+                        ids.add(name);
+                    }
+                }
+            }
+        }
+        File packDir = join(gitletDir, "packs");
+        for (byte type : new byte[] {Pack.COMMIT, Pack.TREE, Pack.BLOB}) {
+            Pack.idsOf(packDir, type, ids);
+        }
+        return ids;
+    }
+}
@@ -33,7 +33,7 @@ public class Branch {
     }
 
     static boolean exists(File branchDir, String branchName) {
-        return getBranchFile(branchDir, branchName).exists();
+        return Session.branchExists(getBranchFile(branchDir, branchName));
     }
 
     /**
@@ -45,8 +45,11 @@ public class Branch {
     }
 
     static Commit get(File branchDir, File commitDir, String branchName) {
-        String commitId = readContentsAsString(getBranchFile(branchDir, branchName));
-        return Commit.toCommit(Commit.getCommitFile(commitDir, commitId));
+        String commitId = Session.branch(getBranchFile(branchDir, branchName));
+        if (commitDir.equals(Commit.COMMITS_DIR)) {
+            return Session.commit(commitId);
+        }
+        return Commit.get(commitDir, commitId);
     }
 
     /**
@@ -65,14 +68,7 @@ public class Branch {
     }
 
     static void set(File branchDir, String branchName, String commitId) {
-        File branchFile = getBranchFile(branchDir, branchName);
-        if (!branchFile.getParentFile().exists()) {
-            branchFile.getParentFile().mkdirs();
-        }
-        if (!branchFile.exists()) {
-            createFile(branchFile);
-        }
-        writeContents(branchFile, commitId);
+        Session.setBranch(getBranchFile(branchDir, branchName), commitId);
     }
 
     /**
@@ -80,7 +76,7 @@ public class Branch {
      * Use exists() before this.
      */
     static void remove(String branchName) {
-        getBranchFile(branchName).delete();
+        Session.removeBranch(getBranchFile(branchName));
     }
 
     /**
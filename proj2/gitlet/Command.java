@@ -1,5 +1,14 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 import static gitlet.GitletException.*;
@@ -10,23 +19,30 @@ import static gitlet.Utils.*;
  * Represents commands of Gitlet.
  */
 public class Command {
+    /**
+     * An arguments number that means one or more arguments.
+     */
+    private static final int ONE_OR_MORE = -1;
     /**
      * A map that shows possible arguments numbers of every command.
      */
     private static final Map<String, Set<Integer>> ARGS_MAP = Map.ofEntries(
-            Map.entry("init", Set.of(0)),
-            Map.entry("add", Set.of(1)),
+            Map.entry("init", Set.of(0, 1)),
+            Map.entry("add", Set.of(ONE_OR_MORE)),
             Map.entry("commit", Set.of(1)),
             Map.entry("rm", Set.of(1)),
-            Map.entry("log", Set.of(0)),
-            Map.entry("global-log", Set.of(0)),
-            Map.entry("find", Set.of(1)),
+            Map.entry("log", Set.of(0, 1, 2)),
+            Map.entry("global-log", Set.of(0, 1, 2)),
+            Map.entry("find", Set.of(1, 2)),
             Map.entry("status", Set.of(0)),
             Map.entry("checkout", Set.of(2, 3, 1)),
             Map.entry("branch", Set.of(1)),
             Map.entry("rm-branch", Set.of(1)),
             Map.entry("reset", Set.of(1)),
             Map.entry("merge", Set.of(1)),
+            Map.entry("gc", Set.of(0)),
+            Map.entry("daemon", Set.of(0, 1)),
+            Map.entry("diff", Set.of(0, 1, 2)),
             // Extra Credit
             Map.entry("add-remote", Set.of(2)),
             Map.entry("rm-remote", Set.of(1)),
@@ -46,99 +62,174 @@ public class Command {
         if (!ARGS_MAP.containsKey(command)) {
             throw commandNotExistException();
         }
-        if (!ARGS_MAP.get(command).contains(commandArgs.length)) {
+        Set<Integer> argsNumbers = ARGS_MAP.get(command);
+        if (!argsNumbers.contains(commandArgs.length)
+                && !(argsNumbers.contains(ONE_OR_MORE) && commandArgs.length >= 1)) {
             throw operandsIncorrectException();
         }
 
-        if (command.equals("init")) {
-            init();
-        } else {
+        if (!command.equals("init")) {
             if (!exists()) {
                 throw uninitializedException();
             }
-            switch (command) {
-                case "add":
-                    add(commandArgs);
-                    break;
-                case "commit":
-                    commit(commandArgs);
-                    break;
-                case "rm":
-                    rm(commandArgs);
-                    break;
-                case "log":
-                    log();
-                    break;
-                case "global-log":
-                    globalLog();
-                    break;
-                case "find":
-                    find(commandArgs);
-                    break;
-                case "status":
-                    status();
-                    break;
-                case "checkout":
-                    checkout(commandArgs);
-                    break;
-                case "branch":
-                    branch(commandArgs);
-                    break;
-                case "rm-branch":
-                    rmBranch(commandArgs);
-                    break;
-                case "reset":
-                    reset(commandArgs);
-                    break;
-                case "merge":
-                    merge(commandArgs);
-                    break;
-                case "add-remote":
-                    addRemote(commandArgs);
-                    break;
-                case "rm-remote":
-                    rmRemote(commandArgs);
-                    break;
-                case "push":
-                    push(commandArgs);
-                    break;
-                case "fetch":
-                    fetch(commandArgs);
-                    break;
-                case "pull":
-                    pull(commandArgs);
-                    break;
-
-                default:
-                    throw commandNotExistException();
-            }
+            Journal.recover();
+        }
+        if (command.equals("daemon")) {
+            daemon(commandArgs);
+            return;
+        }
+        try {
+            run(command, commandArgs);
+            finish();
+        } catch (GitletException excp) {
+            // Commands like a fast-forward merge end with a message after
+            // making their changes, which are kept.
+            finish();
+            throw excp;
+        } catch (RuntimeException | Error excp) {
+            Journal.discard();
+            throw excp;
+        } finally {
+            Session.end(command);
+            Bloom.recheck();
+            StatIndex.save();
         }
     }
 
-    private static void init() throws GitletException {
-        if (exists()) {
-            throw initGitletAlreadyExistsException();
+    /**
+     * Runs command with args. Changes to head, branches and the staging
+     * area are kept in the Session and the Journal, not written yet.
+     */
+    private static void run(String command, String[] commandArgs) throws GitletException {
+        switch (command) {
+            case "init":
+                init(commandArgs);
+                break;
+            case "add":
+                add(commandArgs);
+                break;
+            case "commit":
+                commit(commandArgs);
+                break;
+            case "rm":
+                rm(commandArgs);
+                break;
+            case "log":
+                log(commandArgs);
+                break;
+            case "global-log":
+                globalLog(commandArgs);
+                break;
+            case "find":
+                find(commandArgs);
+                break;
+            case "status":
+                status();
+                break;
+            case "checkout":
+                checkout(commandArgs);
+                break;
+            case "branch":
+                branch(commandArgs);
+                break;
+            case "rm-branch":
+                rmBranch(commandArgs);
+                break;
+            case "reset":
+                reset(commandArgs);
+                break;
+            case "merge":
+                merge(commandArgs);
+                break;
+            case "gc":
+                gc();
+                break;
+            case "diff":
+                diff(commandArgs);
+                break;
+            case "add-remote":
+                addRemote(commandArgs);
+                break;
+            case "rm-remote":
+                rmRemote(commandArgs);
+                break;
+            case "push":
+                push(commandArgs);
+                break;
+            case "fetch":
+                fetch(commandArgs);
+                break;
+            case "pull":
+                pull(commandArgs);
+                break;
+
+            default:
+                throw commandNotExistException();
         }
-        initRepository();
     }
 
-    private static void add(String[] args) throws GitletException {
-        add(args[0]);
+    /**
+     * Writes all changes of a command that's done.
+     */
+    private static void finish() {
+        Session.flush();
+        Journal.commit();
     }
 
-    private static void add(String fileName) throws GitletException {
-        if (!isFileExist(fileName)) {
-            throw addFileNotExistException();
+    /**
+     * Usage: init [--compressed]
+     * With --compressed, blobs of the new repository are stored deflated.
+     */
+    private static void init(String[] args) throws GitletException {
+        if (args.length == 1 && !args[0].equals("--compressed")) {
+            throw operandsIncorrectException();
         }
+        init(args.length == 1);
+    }
 
-        stagingAdd(fileName);
+    private static void init(boolean compressed) throws GitletException {
+        if (exists()) {
+            throw initGitletAlreadyExistsException();
+        }
+        initRepository(compressed);
+    }
 
-        Commit currentCommit = getHead();
-        if (currentCommit.contains(fileName) && !currentCommit.isChanged(fileOf(fileName))) {
-            removeFromAddition(fileName);
-            removeFromRemoval(fileName);
+    /**
+     * Usage: add [file name]...
+     * A file name may be a glob (with *, ?, [ or {) that matches files in the
+     * working directory, or "." for all of them. If any file doesn't exist or
+     * any glob matches nothing, nothing is staged.
+     */
+    private static void add(String[] args) throws GitletException {
+        TreeSet<String> fileNames = new TreeSet<>();
+        List<String> workingDirectoryFiles = workingDirectoryFiles();
+        for (String arg : args) {
+            if (arg.equals(".")) {
+                fileNames.addAll(workingDirectoryFiles);
+            } else if (isGlob(arg)) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+                List<String> matches = new ArrayList<>();
+                for (String fileName : workingDirectoryFiles) {
+                    if (matcher.matches(Paths.get(fileName))) {
+                        matches.add(fileName);
+                    }
+                }
+                if (matches.isEmpty()) {
+                    throw addFileNotExistException();
+                }
+                fileNames.addAll(matches);
+            } else if (fileOf(arg).isFile()) {
+                fileNames.add(arg);
+            } else {
+                throw addFileNotExistException();
+            }
         }
-        // If new added file's version is the same as currentCommit, cancel addition.
+        // Files the same as in current commit are unstaged instead.
+        stagingAdd(new ArrayList<>(fileNames));
+    }
+
+    private static boolean isGlob(String arg) {
+        return arg.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0);
     }
 
     private static void commit(String[] args) throws GitletException {
@@ -187,25 +278,71 @@ public class Command {
         }
     }
 
-    private static void log() throws GitletException {
-        Commit.log(getHead());
+    /**
+     * Usage: log [--max-count=N] [--since=DATE]
+     * Prints at most N commits, and none made before DATE (yyyy-MM-dd, or
+     * yyyy-MM-dd HH:mm:ss, in the time zone of logs).
+     */
+    private static void log(String[] args) throws GitletException {
+        try (LogWriter out = logWriter(args)) {
+            Commit.log(getHead(), out);
+        }
     }
 
-    private static void globalLog() throws GitletException {
-        Commit.globalLog();
+    /**
+     * Usage: global-log [--max-count=N] [--since=DATE]
+     * Same options as log.
+     */
+    private static void globalLog(String[] args) throws GitletException {
+        try (LogWriter out = logWriter(args)) {
+            Commit.globalLog(out);
+        }
+    }
+
+    private static LogWriter logWriter(String[] args) throws GitletException {
+        int maxCount = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--max-count=")) {
+                    maxCount = Integer.parseInt(arg.substring("--max-count=".length()));
+                    if (maxCount < 0) {
+                        throw operandsIncorrectException();
+                    }
+                } else if (arg.startsWith("--since=")) {
+                    since = Commit.timestampOf(arg.substring("--since=".length()));
+                } else {
+                    throw operandsIncorrectException();
+                }
+            }
+        } catch (NumberFormatException | DateTimeParseException excp) {
+            throw operandsIncorrectException();
+        }
+        return new LogWriter(maxCount, since);
     }
 
+    /**
+     * Usage: find [--contains | --words] [commit message]
+     * With --contains, finds commits whose message contains the text, and
+     * with --words, commits whose message has all its words, in any case.
+     */
     private static void find(String[] args) throws GitletException {
-        find(args[0]);
-    }
-
-    private static void find(String message) throws GitletException {
-        List<String> commitIds = Commit.getAllCommits();
+        MessageIndex index = MessageIndex.of(GITLET_DIR);
+        List<String> commitIds;
+        if (args.length == 1) {
+            commitIds = index.find(args[0]);
+        } else if (args[0].equals("--contains")) {
+            commitIds = index.findContaining(args[1]);
+        } else if (args[0].equals("--words")) {
+            commitIds = index.findWords(args[1]);
+        } else {
+            throw operandsIncorrectException();
+        }
         boolean found = false;
         for (String commitId : commitIds) {
-            Commit commit = Commit.get(commitId);
-            if (commit.getMessage().equals(message)) {
-                System.out.println(commit.id);
+            // The index may have a commit whose file was never put in place.
+            if (Commit.exists(commitId)) {
+                System.out.println(commitId);
                 found = true;
             }
         }
@@ -483,59 +620,38 @@ public class Command {
             checkout(branchName);
             throw mergeCurrentBranchIsAncestorMessage();
         }
-        for (String fileName : splitPoint.files()) {
-            if (currentCommit.contains(fileName) && mergedCommit.contains(fileName)
-                    && Commit.different(splitPoint, mergedCommit, fileName)
-                    && !Commit.different(splitPoint, currentCommit, fileName)) {
-                Repository.checkout(mergedCommit, fileName);
-                stagingAdd(fileName);
-            }
-        }
-        for (String fileName : mergedCommit.files()) {
-            if (!splitPoint.contains(fileName) && !currentCommit.contains(fileName)) {
-                Repository.checkout(mergedCommit, fileName);
-                stagingAdd(fileName);
-            }
-        }
-        for (String fileName : splitPoint.files()) {
-            if (currentCommit.contains(fileName)
-                    && !Commit.different(splitPoint, currentCommit, fileName)
-                    && !mergedCommit.contains(fileName)) {
-                rm(fileName);
-            }
-        }
-        Set<String> potentialConflictFiles = new HashSet<>(mergedCommit.files());
-        potentialConflictFiles.addAll(currentCommit.files());
+        // Walks the files of all three commits in order of names at once.
+        // Equal content means equal blob ids, so files are classified by ids
+        // alone, and only read when there's a conflict.
+        Iterator<Map.Entry<String, String>> splitFiles = splitPoint.sortedFiles()
+                .entrySet().iterator();
+        Iterator<Map.Entry<String, String>> currentFiles = currentCommit.sortedFiles()
+                .entrySet().iterator();
+        Iterator<Map.Entry<String, String>> mergedFiles = mergedCommit.sortedFiles()
+                .entrySet().iterator();
+        Map.Entry<String, String> split = nextOrNull(splitFiles);
+        Map.Entry<String, String> current = nextOrNull(currentFiles);
+        Map.Entry<String, String> merged = nextOrNull(mergedFiles);
         boolean conflictExists = false;
-        for (String fileName : potentialConflictFiles) {
-            boolean conflict = false;
-            boolean currentExists = currentCommit.contains(fileName);
-            boolean mergedExists = mergedCommit.contains(fileName);
-            if (splitPoint.contains(fileName)) {
-                if (currentExists && mergedExists
-                        && Commit.different(splitPoint, currentCommit, fileName)
-                        && Commit.different(splitPoint, mergedCommit, fileName)
-                        && Commit.different(currentCommit, mergedCommit, fileName)) {
-                    conflict = true;
-                }
-                if (!(currentExists && mergedExists)
-                        && (
-                        (currentExists && Commit.different(splitPoint, currentCommit, fileName))
-                        || (mergedExists && Commit.different(splitPoint, mergedCommit, fileName)))
-                ) {
-                    conflict = true;
-                }
-            } else {
-                if (currentExists && mergedExists
-                        && Commit.different(currentCommit, mergedCommit, fileName)) {
-                    conflict = true;
-                }
+        while (split != null || current != null || merged != null) {
+            String fileName = firstName(firstName(nameOf(split), nameOf(current)), nameOf(merged));
+            String splitId = null;
+            String currentId = null;
+            String mergedId = null;
+            if (fileName.equals(nameOf(split))) {
+                splitId = split.getValue();
+                split = nextOrNull(splitFiles);
             }
-            if (conflict) {
-                conflictExists = true;
-                mergeFile(currentCommit, mergedCommit, fileName);
-                stagingAdd(fileName);
+            if (fileName.equals(nameOf(current))) {
+                currentId = current.getValue();
+                current = nextOrNull(currentFiles);
+            }
+            if (fileName.equals(nameOf(merged))) {
+                mergedId = merged.getValue();
+                merged = nextOrNull(mergedFiles);
             }
+            conflictExists |= mergeFile(splitPoint, currentCommit, mergedCommit, fileName,
+                    splitId, currentId, mergedId);
         }
         String commitMessage = mergeMessage(currentBranch, branchName);
         mergedCommit(branchName, commitMessage);
@@ -544,22 +660,167 @@ public class Command {
         }
     }
 
+    /**
+     * Merges one file, whose blob ids are splitId, currentId and mergedId at
+     * the split point, the current and the given commit, or null where it's
+     * absent. Returns true if it's in conflict.
+     */
+    private static boolean mergeFile(Commit splitPoint, Commit currentCommit,
+                                     Commit mergedCommit, String fileName, String splitId,
+                                     String currentId, String mergedId) {
+        boolean currentChanged = !Objects.equals(splitId, currentId);
+        boolean mergedChanged = !Objects.equals(splitId, mergedId);
+        if (!mergedChanged || Objects.equals(currentId, mergedId)) {
+            return false;
+        }
+        if (!currentChanged) {
+            // Only the given branch changed it.
+            if (mergedId == null) {
+                rm(fileName);
+            } else {
+                Repository.checkout(mergedCommit, fileName);
+                stagingAdd(fileName);
+            }
+            return false;
+        }
+        boolean conflict = true;
+        if (splitId != null && currentId != null && mergedId != null) {
+            conflict = !mergeLines(splitPoint, currentCommit, mergedCommit, fileName);
+        } else {
+            mergeFile(currentCommit, mergedCommit, fileName);
+        }
+        stagingAdd(fileName);
+        return conflict;
+    }
+
+    private static Map.Entry<String, String> nextOrNull(
+            Iterator<Map.Entry<String, String>> files) {
+        return files.hasNext() ? files.next() : null;
+    }
+
+    private static String nameOf(Map.Entry<String, String> file) {
+        return file == null ? null : file.getKey();
+    }
+
+    /**
+     * Returns the name that comes first, where null comes after any name.
+     */
+    private static String firstName(String name1, String name2) {
+        if (name1 == null || (name2 != null && name2.compareTo(name1) < 0)) {
+            return name2;
+        }
+        return name1;
+    }
+
+    /**
+     * Merges the versions of a file that both branches changed line by line,
+     * writing conflict markers only around the lines both changed
+     * differently. Returns true if there was no such line.
+     */
+    private static boolean mergeLines(Commit splitPoint, Commit currentCommit,
+                                      Commit mergedCommit, String fileName) {
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(fileOf(fileName).toPath()))) {
+            return LineMerge.merge(Blob.get(splitPoint.getBlob(fileName)),
+                    Blob.get(currentCommit.getBlob(fileName)),
+                    Blob.get(mergedCommit.getBlob(fileName)), out) == 0;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     private static void mergeFile(Commit currentCommit, Commit mergedCommit, String fileName) {
-        if (!fileOf(fileName).exists()) {
-            createFile(fileOf(fileName));
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(fileOf(fileName).toPath()))) {
+            out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            if (currentCommit.contains(fileName)) {
+                Blob.writeTo(currentCommit.getBlob(fileName), out);
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (mergedCommit.contains(fileName)) {
+                Blob.writeTo(mergedCommit.getBlob(fileName), out);
+            }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        String currentContent = currentCommit.contains(fileName)
-                ? readContentsAsString(currentCommit.getFile(fileName)) : "";
-        String mergedContent = mergedCommit.contains(fileName)
-                ? readContentsAsString(mergedCommit.getFile(fileName)) : "";
-        writeContents(fileOf(fileName), "<<<<<<< HEAD\n",
-                currentContent, "=======\n", mergedContent, ">>>>>>>\n");
     }
 
     private static String mergeMessage(String currentBranch, String givenBranch) {
         return "Merged " + givenBranch + " into " + currentBranch + ".";
     }
 
+    /**
+     * Migrates loose commits and blobs into a pack.
+     */
+    private static void gc() throws GitletException {
+        Pack.repack(GITLET_DIR);
+    }
+
+    /**
+     * Usage: diff [--cached] | diff [commit id] | diff [commit id] [commit id]
+     * Prints the changes from the staging area to the working directory,
+     * with --cached from the head commit to the staging area, from a commit
+     * to the working directory, or from one commit to another. Only tracked
+     * files are compared with the working directory.
+     */
+    private static void diff(String[] args) throws GitletException {
+        TreeMap<String, String> oldFiles;
+        TreeMap<String, String> newFiles;
+        boolean newInWorkingDirectory = true;
+        if (args.length == 0) {
+            oldFiles = stagedFiles();
+            newFiles = workingFiles(oldFiles.keySet());
+        } else if (args.length == 1 && args[0].equals("--cached")) {
+            oldFiles = getHead().sortedFiles();
+            newFiles = stagedFiles();
+            newInWorkingDirectory = false;
+        } else if (args.length == 1) {
+            oldFiles = diffCommit(args[0]).sortedFiles();
+            newFiles = workingFiles(stagedFiles().keySet());
+        } else {
+            oldFiles = diffCommit(args[0]).sortedFiles();
+            newFiles = diffCommit(args[1]).sortedFiles();
+            newInWorkingDirectory = false;
+        }
+        TreeSet<String> fileNames = new TreeSet<>(oldFiles.keySet());
+        fileNames.addAll(newFiles.keySet());
+        // System.out is flushed, not closed.
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            for (String fileName : fileNames) {
+                UnifiedDiff.print(fileName, oldFiles.get(fileName), newFiles.get(fileName),
+                        newInWorkingDirectory, out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static Commit diffCommit(String commitId) throws GitletException {
+        if (!Commit.exists(commitId)) {
+            throw diffCommitNotExistException();
+        }
+        return Commit.get(commitId);
+    }
+
+    /**
+     * Usage: daemon [stop]
+     * Serves commands of this repository until "daemon stop", see Daemon.
+     * A running daemon is sent "daemon stop" by Main, so stop only gets
+     * here if there's none.
+     */
+    private static void daemon(String[] args) throws GitletException {
+        if (args.length == 0) {
+            Daemon.serve();
+        } else if (args[0].equals("stop")) {
+            throw daemonNotRunningException();
+        } else {
+            throw operandsIncorrectException();
+        }
+    }
+
     private static void addRemote(String[] args) throws GitletException {
         addRemote(args[0], args[1]);
     }
@@ -601,14 +862,12 @@ public class Command {
             remoteBranchHead = Remote.getBranch(remoteName, remoteBranchName);
         }
 
-        HashSet<String> ancestors = Commit.ancestorsOf(getHead());
-        if (!ancestors.contains(remoteBranchHead.id)) {
+        String headId = getHead().id;
+        if (!Commit.isAncestor(remoteBranchHead.id, headId)) {
             throw remoteNeedPullDownFirstException();
         }
-        ancestors.removeAll(Commit.ancestorsOf(remoteBranchHead));
-        for (String commitId : ancestors) {
-            Remote.copyCommit(GITLET_DIR, Remote.remoteRepo(remoteName), commitId);
-        }
+        Transfer.copyCommits(GITLET_DIR, Remote.remoteRepo(remoteName), Commit.missingIn(
+                Commit.COMMITS_DIR, headId, Remote.remoteCommitDir(remoteName)));
 
         Remote.setBranch(remoteName, remoteBranchName, getHead().id);
     }
@@ -629,11 +888,8 @@ public class Command {
         }
 
         Commit remoteBranchHead = Remote.getBranch(remoteName, remoteBranchName);
-        HashSet<String> ancestors = Commit.ancestorsOf(
-                Remote.remoteCommitDir(remoteName), remoteBranchHead);
-        for (String commitId : ancestors) {
-            Remote.copyCommit(Remote.remoteRepo(remoteName), GITLET_DIR, commitId);
-        }
+        Transfer.copyCommits(Remote.remoteRepo(remoteName), GITLET_DIR, Commit.missingIn(
+                Remote.remoteCommitDir(remoteName), remoteBranchHead.id, Commit.COMMITS_DIR));
 
         Branch.set(fetchBranchName(remoteName, remoteBranchName), remoteBranchHead.id);
     }
@@ -1,8 +1,12 @@
 package gitlet;
 
 import java.io.File;
+import java.io.PrintWriter;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -11,7 +15,8 @@ import static gitlet.Utils.*;
  * Represents a gitlet commit object.
  * Every Commit object contains commit metadata and a set of mapping relation
  * between file-names and blobs. SHA-1 ids can be used to access specific
- * Serialized Commit objects to implement persistence.
+ * commit files to implement persistence. Commits are saved by CommitCodec;
+ * Serializable is kept to read commits saved by older versions.
  *
  * @author xianzhe233
  */
@@ -29,9 +34,48 @@ public class Commit implements Serializable {
     static final File COMMITS_DIR = join(Repository.GITLET_DIR, "commits");
     static final long INITIAL_TIMESTAMP = 0;
     static final String INITIAL_ID = "2bca61509088a86ded75abaf7eb7ff15f331fad6";
+    /**
+     * The version of commits that were serialized, which must not change.
+     */
+    private static final long serialVersionUID = -1172476424180041619L;
+    /**
+     * Most recently read commits by commits directory and id. Commit files
+     * never change, so these stay valid as long as gitlet runs, which is
+     * long for a Daemon.
+     */
+    private static final int CACHE_SIZE = 4096;
+    private static final LinkedHashMap<String, Commit> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+    /**
+     * Format of dates in logs.
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.US)
+            .withZone(ZoneOffset.ofHours(-8));
     private final long timestamp;
     private final String message;
-    private final HashMap<String, String> fileMap; // Maps file names to blobs
+    private volatile HashMap<String, String> fileMap; // Maps file names to blobs
+    /**
+     * Id of the Tree of this commit's files, which fileMap is read from when
+     * first used. Commits saved before trees existed have none.
+     */
+    private String tree;
+    /**
+     * The trees directory of the repository this commit was read from.
+     */
+    private transient File treeDir = Tree.TREES_DIR;
+    /**
+     * The encoded commit that fileMap is decoded from when first used,
+     * starting at filesOffset, if the commit was saved with its files.
+     * Null once fileMap is decoded.
+     */
+    private transient byte[] encoded;
+    private transient int filesOffset;
     String id;
     String parent = null; // first parent
     String mergedParent = null; // merged parent (if exists)
@@ -45,29 +89,52 @@ public class Commit implements Serializable {
         this.message = message;
         this.timestamp = (parent != null) ? getTimeStamp() : INITIAL_TIMESTAMP;
 
-        // Processes parent issues. If parent is not null, copy its fileMap.
+        // Processes parent issues. Files are parent's files updated with
+        // staging area, so only tree nodes of changed files are saved.
+        TreeMap<String, String> changes = new TreeMap<>(addition);
+        for (String fileName : removal) {
+            changes.put(fileName, null);
+        }
+        String parentTree;
         if (parent != null) {
             this.parent = parent.id;
-            this.fileMap = new HashMap<>(parent.fileMap);
+            parentTree = parent.tree();
         } else {
-            this.fileMap = new HashMap<>();
+            parentTree = Tree.build(Tree.TREES_DIR, new HashMap<>());
         }
         if (merged != null) {
             this.mergedParent = merged.id;
         }
+        this.tree = Tree.update(Tree.TREES_DIR, parentTree, changes);
 
-        // Updates with staging area.
-        this.fileMap.putAll(addition);
-        this.fileMap.entrySet().removeIf(entry -> removal.contains(entry.getKey()));
-
-        // Finally uses hash.
+        // Finally uses hash. The initial commit keeps the id it had when ids
+        // hashed the whole file map, so it's the same in every repository.
         String parentStr = parent == null ? "" : parent.id;
         String mergedStr = merged == null ? "" : merged.id;
+        String filesStr = parent == null ? "{}" : this.tree;
         this.id = sha1(this.message, String.valueOf(this.timestamp),
-                this.fileMap.toString(), parentStr, mergedStr);
+                filesStr, parentStr, mergedStr);
 
         // Saves the commit as file.
         saveCommit(this);
+        CommitGraph.of(COMMITS_DIR).add(this);
+    }
+
+    /**
+     * Creates a commit object that was read from a commit file. Its files
+     * are read from tree, or decoded from encoded starting at filesOffset,
+     * when first used.
+     */
+    Commit(String id, String parent, String mergedParent, long timestamp,
+           String message, String tree, byte[] encoded, int filesOffset) {
+        this.id = id;
+        this.parent = parent;
+        this.mergedParent = mergedParent;
+        this.timestamp = timestamp;
+        this.message = message;
+        this.tree = tree;
+        this.encoded = encoded;
+        this.filesOffset = filesOffset;
     }
 
     /**
@@ -78,14 +145,21 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Converts a timestamp to formated date message string.
+     * Converts a timestamp to formated date message string. The formatter
+     * is made once, and can be shared since it's immutable.
      */
     static String dateOf(long timestamp) {
-        Date date = new Date(timestamp);
-        SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
-        sdf.setTimeZone(TimeZone.getTimeZone("GMT-08:00"));
-        String formattedDate = sdf.format(date);
-        return formattedDate;
+        return DATE_FORMAT.format(Instant.ofEpochMilli(timestamp));
+    }
+
+    /**
+     * Returns the timestamp of date, yyyy-MM-dd or yyyy-MM-dd HH:mm:ss in
+     * the time zone of logs.
+     */
+    static long timestampOf(String date) {
+        String dateTime = date.contains(" ") ? date : date + " 00:00:00";
+        return LocalDateTime.parse(dateTime, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
+                .toInstant(ZoneOffset.ofHours(-8)).toEpochMilli();
     }
 
     /**
@@ -112,8 +186,9 @@ public class Commit implements Serializable {
         if (!headDir.exists()) {
             headDir.mkdirs();
         }
-        createFile(commitFile);
-        writeObject(commitFile, commit);
+        Bloom.added(COMMITS_DIR, commit.id);
+        MessageIndex.added(COMMITS_DIR, commit);
+        Journal.saveObject(COMMITS_DIR, commitFile, CommitCodec.encode(commit));
     }
 
     /**
@@ -127,49 +202,91 @@ public class Commit implements Serializable {
      * Returns if there exists exactly 1 commit with that id.
      */
     static boolean exists(String id) {
-        if (id == null || id.length() <= 2) {
-            return false;
-        }
-        String idHead = idHead(id);
-        String idTail = idTail(id);
-        File secondaryDir = join(COMMITS_DIR, idHead);
-        if (!secondaryDir.exists()) {
-            return false;
-        }
-        List<String> commitNames = plainFilenamesIn(secondaryDir);
-        long count = commitNames.stream().filter(name -> name.startsWith(idTail)).count();
-        return count == 1;
+        return fullId(COMMITS_DIR, id) != null;
     }
 
     /**
-     * Reads a commit object from commitFile.
+     * Returns the full id of the only commit (loose or packed) whose id
+     * starts with the abbreviated id, or null if there's no such commit.
+     * Packs are searched first, and the loose commits' directory is only
+     * listed if it exists, as it usually doesn't after gc.
      */
-    static Commit toCommit(File commitFile) {
-        return readObject(commitFile, Commit.class);
+    static String fullId(File commitDir, String id) {
+        if (id == null || id.length() <= 2 || !Bloom.mightExist(commitDir, id)) {
+            return null;
+        }
+        String idHead = idHead(id);
+        String idTail = idTail(id);
+        if (id.length() == UID_LENGTH && join(commitDir, idHead, idTail).exists()) {
+            return id;
+        }
+        HashSet<String> matches = new HashSet<>();
+        Pack.findByPrefix(Pack.packDirOf(commitDir), id, Pack.COMMIT, matches);
+        if (id.length() == UID_LENGTH) {
+            return matches.isEmpty() ? null : id;
+        }
+        if (matches.size() > 1) {
+            return null;
+        }
+        File looseDir = join(commitDir, idHead);
+        // gc may delete the directory once it's checked, so the list may be null.
+        List<String> commitNames = looseDir.isDirectory() ? plainFilenamesIn(looseDir) : null;
+        if (commitNames != null) {
+            for (String commitName : commitNames) {
+                if (commitName.startsWith(idTail)) {
+                    matches.add(idHead + commitName);
+                }
+            }
+        }
+        return matches.size() == 1 ? matches.iterator().next() : null;
     }
 
     /**
      * Gets Commit object by commit id. Abbreviation supported.
      */
     static Commit get(String id) {
-        return toCommit(getCommitFile(COMMITS_DIR, id));
+        return get(COMMITS_DIR, id);
     }
 
     static Commit get(File commitDir, String id) {
-        return toCommit(getCommitFile(commitDir, id));
+        String key = commitDir.getPath() + File.separator + id;
+        synchronized (CACHE) {
+            Commit commit = CACHE.get(key);
+            if (commit != null) {
+                return commit;
+            }
+        }
+        Session.countRead("commits");
+        Commit commit = decode(commitDir, getBytes(commitDir, id));
+        if (id.length() == UID_LENGTH) {
+            synchronized (CACHE) {
+                CACHE.put(key, commit);
+            }
+        }
+        return commit;
     }
 
-    static File getCommitFile(File commitDir, String id) {
-        File secondaryDir = join(commitDir, idHead(id));
-        String idTail = idTail(id);
-        List<String> commitNames = plainFilenamesIn(secondaryDir);
-        for (String commitName : commitNames) {
-            if (commitName.startsWith(idTail)) {
-                File commitFile = join(secondaryDir, commitName);
-                return commitFile;
-            }
+    /**
+     * Returns the commit encoded in bytes, read from commitDir.
+     */
+    static Commit decode(File commitDir, byte[] bytes) {
+        Commit commit = CommitCodec.decode(bytes);
+        commit.treeDir = Tree.treeDirOf(commitDir.getParentFile());
+        return commit;
+    }
+
+    /**
+     * Gets the serialized commit by commit id, from its loose file or a pack.
+     * Abbreviation supported.
+     */
+    static byte[] getBytes(File commitDir, String id) {
+        String fullId = fullId(commitDir, id);
+        // Because Command always check existence before get, fullId is never null.
+        File commitFile = join(commitDir, idHead(fullId), idTail(fullId));
+        if (commitFile.exists()) {
+            return readContents(commitFile);
         }
-        return null; // Because Command always check existence before get, this will never happen.
+        return Pack.read(Pack.packDirOf(commitDir), fullId);
     }
 
     private static boolean isInitial(Commit commit) {
@@ -179,9 +296,11 @@ public class Commit implements Serializable {
     /**
      * Prints logs from commit until initial commit.
      */
-    static void log(Commit commit) {
-        while (commit != null) {
-            commit.print();
+    static void log(Commit commit, LogWriter out) {
+        // First parents are older than their children, so the walk stops at
+        // the first commit that's too old.
+        while (commit != null && !out.isFull() && !out.isTooOld(commit)) {
+            out.write(commit);
             if (isInitial(commit)) {
                 break;
             }
@@ -190,13 +309,23 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Prints logs of all history commits.
+     * Prints logs of all history commits, reading each commit only when
+     * it's printed. Packed commits come first, then loose ones that aren't
+     * also packed.
      */
-    static void globalLog() {
-        List<String> historyCommits = getAllCommits();
-        for (String commitId : historyCommits) {
-            Commit commit = get(commitId);
-            commit.print();
+    static void globalLog(LogWriter out) {
+        if (out.isFull()
+                || !Pack.forEachId(Pack.PACKS_DIR, Pack.COMMIT, id -> out.write(get(id)))) {
+            return;
+        }
+        File[] dirs = COMMITS_DIR.listFiles(File::isDirectory);
+        for (File dir : dirs) {
+            for (String commitTail : plainFilenamesIn(dir)) {
+                String commitId = dir.getName() + commitTail;
+                if (!Pack.contains(Pack.PACKS_DIR, commitId) && !out.write(get(commitId))) {
+                    return;
+                }
+            }
         }
     }
 
@@ -204,8 +333,8 @@ public class Commit implements Serializable {
      * Gets all commits from gitlet repository.
      */
     static List<String> getAllCommits() {
-        File[] dirs = COMMITS_DIR.listFiles();
-        List<String> commits = new ArrayList<>();
+        File[] dirs = COMMITS_DIR.listFiles(File::isDirectory);
+        LinkedHashSet<String> commits = new LinkedHashSet<>();
         for (File dir : dirs) {
             List<String> tailCommits = plainFilenamesIn(dir);
             for (String commitTail : tailCommits) {
@@ -214,26 +343,23 @@ public class Commit implements Serializable {
                 commits.add(commitHead + commitTail);
             }
         }
-        return commits;
+        Pack.idsOf(Pack.PACKS_DIR, Pack.COMMIT, commits);
+        return new ArrayList<>(commits);
     }
 
     /**
-     * Gets c1 and c2's splitPoint.
+     * Gets c1 and c2's splitPoint, their best common ancestor. If there're
+     * several (after criss-cross merges), the newest one is used.
      */
     static Commit splitPoint(Commit c1, Commit c2) {
         if (c1.equals(c2)) {
             return c1;
         }
 
-        HashSet<String> ancestors = ancestorsOf(c1);
-        while (c2 != null) {
-            if (ancestors.contains(c2.id)) {
-                return c2;
-            }
-            c2 = get(c2.parent);
-        }
-
-        return null; // This should never happen.
+        CommitGraph graph = CommitGraph.of(COMMITS_DIR);
+        List<Integer> bases = graph.mergeBases(graph.position(c1.id), graph.position(c2.id));
+        // Every commit descends from the initial commit, so there's always a base.
+        return get(graph.id(bases.get(0)));
     }
 
     /**
@@ -244,52 +370,90 @@ public class Commit implements Serializable {
     }
 
     static HashSet<String> ancestorsOf(File commitDir, Commit srcCommit) {
-        HashSet<String> ancestors = new HashSet<>();
-        Queue<Commit> commitQueue = new LinkedList<>();
-        commitQueue.offer(srcCommit);
-        while (!commitQueue.isEmpty()) {
-            Commit commit = commitQueue.poll();
-            ancestors.add(commit.id);
-            if (isInitial(commit)) {
-                continue;
-            }
-            if (!ancestors.contains(commit.parent)) {
-                commitQueue.offer(get(commitDir, commit.parent));
-            }
-            if (commit.mergedParent != null && !ancestors.contains(commit.mergedParent)) {
-                commitQueue.offer(get(commitDir, commit.mergedParent));
-            }
-        }
-        return ancestors;
+        return CommitGraph.of(commitDir).ancestorsOf(srcCommit.id);
     }
 
     /**
-     * Returns if the file is different at commit1 and commit2.
+     * Returns if commit ancestorId is an ancestor of commit id (or id itself).
+     * Commit ancestorId doesn't need to exist.
      */
-    static boolean different(Commit c1, Commit c2, String fileName) {
-        File f1 = c1.getFile(fileName);
-        File f2 = c2.getFile(fileName);
-        return !readContentsAsString(f1).equals(readContentsAsString(f2));
+    static boolean isAncestor(String ancestorId, String id) {
+        return exists(ancestorId) && CommitGraph.of(COMMITS_DIR).isAncestor(ancestorId, id);
+    }
+
+    /**
+     * Returns ids of commit tip of the repository with fromCommitDir and its
+     * ancestors that the repository with toCommitDir doesn't have, parents
+     * before children, so they can be copied in that order. The commit graph
+     * of a repository other than this one is only read.
+     */
+    static List<String> missingIn(File fromCommitDir, String tip, File toCommitDir) {
+        CommitGraph graph = fromCommitDir.equals(COMMITS_DIR)
+                ? CommitGraph.of(fromCommitDir) : CommitGraph.readOnly(fromCommitDir);
+        return graph.missing(tip, id -> fullId(toCommitDir, id) != null);
     }
 
     String getMessage() {
         return message;
     }
 
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the file map, reading it first if it hasn't been.
+     */
+    HashMap<String, String> fileMap() {
+        HashMap<String, String> files = fileMap;
+        if (files == null) {
+            synchronized (this) {
+                files = fileMap;
+                if (files == null) {
+                    if (encoded != null) {
+                        files = CommitCodec.decodeFiles(encoded, filesOffset);
+                    } else {
+                        files = new HashMap<>();
+                        Tree.readAll(treeDir, tree, files);
+                    }
+                    fileMap = files;
+                    encoded = null;
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns if this commit was saved with a tree.
+     */
+    boolean hasTree() {
+        return tree != null;
+    }
+
+    /**
+     * Returns id of the tree of this commit's files, saving the tree first
+     * if the commit was saved before trees existed.
+     */
+    String tree() {
+        if (tree == null) {
+            tree = Tree.build(Tree.TREES_DIR, fileMap());
+        }
+        return tree;
+    }
+
     /**
      * Returns if this commit contains a file with fileName.
      */
     boolean contains(String fileName) {
-        return this.fileMap.containsKey(fileName);
+        return fileMap().containsKey(fileName);
     }
 
     /**
-     * Gets file of the blob of fileName in this commit.
+     * Gets id of the blob of fileName in this commit.
      */
-    File getFile(String fileName) {
-        String blobId = fileMap.get(fileName);
-        File file = Blob.get(blobId);
-        return file;
+    String getBlob(String fileName) {
+        return fileMap().get(fileName);
     }
 
     /**
@@ -300,36 +464,41 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Prints out this commit's log message.
+     * Prints out this commit's log message to out.
      */
-    private void print() {
-        System.out.println("===");
-        System.out.println("commit " + this.id);
+    void print(PrintWriter out) {
+        out.println("===");
+        out.println("commit " + this.id);
         if (mergedParent != null) {
-            System.out.println("Merge: " + parent.substring(0, 7)
+            out.println("Merge: " + parent.substring(0, 7)
                     + ' ' + mergedParent.substring(0, 7));
         }
-        System.out.println("Date: " + dateOf(this.timestamp));
-        System.out.println(this.message);
-        System.out.println();
+        out.println("Date: " + dateOf(this.timestamp));
+        out.println(this.message);
+        out.println();
     }
 
     boolean isChanged(File file) {
-        String fileName = file.getName();
-        File fileOfCommit = getFile(fileName);
-        return !readContentsAsString(fileOfCommit).equals(readContentsAsString(file));
+        return !Blob.equals(getBlob(file.getName()), file);
+    }
+
+    /**
+     * Returns the files of this commit by name, in order of names.
+     */
+    TreeMap<String, String> sortedFiles() {
+        return new TreeMap<>(fileMap());
     }
 
     /**
      * Gets all files that are contained in this commit.
      */
     HashSet<String> files() {
-        HashSet<String> files = new HashSet<>(fileMap.keySet());
+        HashSet<String> files = new HashSet<>(fileMap().keySet());
         return files;
     }
 
     HashSet<String> blobs() {
-        HashSet<String> blobs = new HashSet<>(fileMap.values());
+        HashSet<String> blobs = new HashSet<>(fileMap().values());
         return blobs;
     }
 
@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * CommitCodec writes commits in a compact binary format and reads them back.
+ *
+ * Format: "GCMT" | version (1 byte) | id | flags (1 byte) | [parent] | [merged parent]
+ *         | timestamp (8 bytes) | message | tree id
+ * Ids are raw 20-byte SHA-1s, and the message is a varint length followed
+ * by UTF-8 bytes. The PARENT and MERGED bits of flags tell which parents
+ * follow. The commit's files are in its Tree.
+ *
+ * Version 1 had the files instead of the tree id:
+ *         ... | message | file count | file...    file = name | blob id
+ * with the file count and names as varints, and files sorted by name.
+ * A decoded version 1 commit decodes its files when they're first used, so
+ * commands like log that don't look at files never decode them. Commits
+ * written by older versions of gitlet with Java serialization are still read.
+ *
+ * @author xianzhe233
+ */
+public class CommitCodec {
+    private static final int MAGIC = 0x47434d54; // "GCMT"
+    private static final byte VERSION = 2;
+    private static final byte FILES_VERSION = 1;
+    private static final byte PARENT = 1;
+    private static final byte MERGED = 2;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /**
+     * First bytes of a Java serialization stream.
+     */
+    private static final short SERIALIZED_MAGIC = (short) 0xaced;
+
+    /**
+     * Returns the encoded commit.
+     */
+    static byte[] encode(Commit commit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC).array());
+        out.write(VERSION);
+        out.writeBytes(hexToBytes(commit.id));
+        out.write((commit.parent != null ? PARENT : 0) | (commit.mergedParent != null ? MERGED : 0));
+        if (commit.parent != null) {
+            out.writeBytes(hexToBytes(commit.parent));
+        }
+        if (commit.mergedParent != null) {
+            out.writeBytes(hexToBytes(commit.mergedParent));
+        }
+        out.writeBytes(ByteBuffer.allocate(Long.BYTES).putLong(commit.getTimestamp()).array());
+        writeString(out, commit.getMessage());
+        out.writeBytes(hexToBytes(commit.tree()));
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the commit encoded in bytes, in either format.
+     */
+    static Commit decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (bytes.length >= 2 && in.getShort(0) == SERIALIZED_MAGIC) {
+            return deserialize(bytes, Commit.class);
+        }
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("bad commit encoding");
+        }
+        byte version = in.get();
+        if (version != VERSION && version != FILES_VERSION) {
+            throw new IllegalArgumentException("bad commit encoding");
+        }
+        String id = readId(in);
+        byte flags = in.get();
+        String parent = (flags & PARENT) != 0 ? readId(in) : null;
+        String mergedParent = (flags & MERGED) != 0 ? readId(in) : null;
+        long timestamp = in.getLong();
+        String message = readString(in);
+        if (version == FILES_VERSION) {
+            return new Commit(id, parent, mergedParent, timestamp, message, null, bytes, in.position());
+        }
+        return new Commit(id, parent, mergedParent, timestamp, message, readId(in), null, 0);
+    }
+
+    /**
+     * Returns the file map of a version 1 encoded commit, whose files start
+     * at offset.
+     */
+    static HashMap<String, String> decodeFiles(byte[] bytes, int offset) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        in.position(offset);
+        int count = readVarint(in);
+        HashMap<String, String> fileMap = new HashMap<>();
+        for (int i = 0; i < count; i += 1) {
+            String fileName = readString(in);
+            fileMap.put(fileName, readId(in));
+        }
+        return fileMap;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private static String readId(ByteBuffer in) {
+        String id = bytesToHex(in.array(), in.position(), ID_BYTES);
+        in.position(in.position() + ID_BYTES);
+        return id;
+    }
+}
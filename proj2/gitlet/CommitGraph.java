@@ -0,0 +1,494 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/**
+ * CommitGraph caches the shape of a repository's history: for every commit
+ * its parents, generation number and timestamp, in primitive arrays indexed
+ * by position. Ancestry queries walk these arrays in memory instead of
+ * reading and deserializing commit objects.
+ *
+ * The graph is saved in the commit-graph file, which is only appended to.
+ * A commit is always recorded after its parents, so parents are referred
+ * to by position. Commits missing from the file (e.g. the file was deleted,
+ * or commits were copied from a remote) are read once and appended when
+ * they're first looked up. Records are appended while holding a lock on
+ * the file, after reading the records other processes appended since, so
+ * a graph kept in memory (e.g. by a Daemon) never writes over them. A file
+ * that doesn't match the graph in memory, e.g. one that was deleted, is
+ * written again from it. The graph of another repository, e.g. a remote
+ * that's fetched from, is only read: its missing commits are kept in
+ * memory and never appended.
+ *
+ * File:   "GCGR" | version | record...
+ *         record = id (20 bytes) | parent position | merged parent position
+ *                  | generation | timestamp (8 bytes)
+ *         A position of -1 means no such parent. The generation of a commit
+ *         without parents is 1, otherwise it's one more than its parents'.
+ *
+ * Since a commit's generation is always greater than its ancestors', a walk
+ * that visits commits from the highest generation down never visits a
+ * commit before its descendants, which mergeBases relies on.
+ *
+ * @author xianzhe233
+ */
+public class CommitGraph {
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD_BYTES = ID_BYTES + 3 * Integer.BYTES + Long.BYTES;
+
+    /**
+     * Flags of commits visited by mergeBases.
+     */
+    private static final byte PARENT1 = 1;
+    private static final byte PARENT2 = 2;
+    private static final byte STALE = 4;
+
+    /**
+     * Graphs that have been loaded, keyed by their commits directory.
+     */
+    private static final Map<File, CommitGraph> LOADED = new HashMap<>();
+
+    private final File commitDir;
+    private final File graphFile;
+    private final boolean readOnly;
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    private String[] ids = new String[16];
+    private int[] parents = new int[16];
+    private int[] mergedParents = new int[16];
+    private int[] generations = new int[16];
+    private long[] timestamps = new long[16];
+    private int size = 0;
+    /**
+     * Length of the file up to its last whole record, which are the first
+     * records of the graph. 0 if the file is to be written again.
+     */
+    private long fileLength = 0;
+
+    private CommitGraph(File commitDir, boolean readOnly) {
+        this.commitDir = commitDir;
+        this.readOnly = readOnly;
+        this.graphFile = join(commitDir.getParentFile(), "commit-graph");
+        if (graphFile.exists()) {
+            readFrom(ByteBuffer.wrap(readContents(graphFile)), 0);
+        }
+    }
+
+    /**
+     * Returns the commit graph of the repository whose commits are in commitDir.
+     */
+    static synchronized CommitGraph of(File commitDir) {
+        return LOADED.computeIfAbsent(commitDir, dir -> new CommitGraph(dir, false));
+    }
+
+    /**
+     * Returns the commit graph of another repository whose commits are in
+     * commitDir, which is read from its file but never saved. It isn't kept,
+     * since the other repository may change before it's read again.
+     */
+    static CommitGraph readOnly(File commitDir) {
+        return new CommitGraph(commitDir, true);
+    }
+
+    /**
+     * Returns the position of commit id, adding it and any of its ancestors
+     * that aren't in the graph yet. The commit must exist.
+     */
+    synchronized int position(String id) {
+        Integer position = positions.get(id);
+        if (position != null) {
+            return position;
+        }
+        update(() -> addWithAncestors(id));
+        return positions.get(id);
+    }
+
+    /**
+     * Adds commit id and any of its ancestors that aren't in the graph.
+     */
+    private void addWithAncestors(String id) {
+        // Reads missing commits depth-first, and records each after its parents.
+        ArrayDeque<Commit> stack = new ArrayDeque<>();
+        stack.push(Commit.get(commitDir, id));
+        while (!stack.isEmpty()) {
+            Commit commit = stack.peek();
+            if (positions.containsKey(commit.id)) {
+                stack.pop();
+                continue;
+            }
+            String missing = null;
+            if (commit.parent != null && !positions.containsKey(commit.parent)) {
+                missing = commit.parent;
+            } else if (commit.mergedParent != null
+                    && !positions.containsKey(commit.mergedParent)) {
+                missing = commit.mergedParent;
+            }
+            if (missing != null) {
+                stack.push(Commit.get(commitDir, missing));
+                continue;
+            }
+            stack.pop();
+            record(commit.id, commit.parent, commit.mergedParent, commit.getTimestamp());
+        }
+    }
+
+    /**
+     * Records a commit that was just created.
+     */
+    synchronized void add(Commit commit) {
+        if ((commit.parent != null && !positions.containsKey(commit.parent))
+                || (commit.mergedParent != null && !positions.containsKey(commit.mergedParent))) {
+            position(commit.id);
+            return;
+        }
+        add(commit.id, commit.parent, commit.mergedParent, commit.getTimestamp());
+    }
+
+    /**
+     * Records commit id with its parents, which must be in the graph already.
+     */
+    synchronized void add(String id, String parent, String mergedParent, long timestamp) {
+        if (positions.containsKey(id)) {
+            return;
+        }
+        update(() -> {
+            // Another process may have recorded it.
+            if (!positions.containsKey(id)) {
+                record(id, parent, mergedParent, timestamp);
+            }
+        });
+    }
+
+    String id(int position) {
+        return ids[position];
+    }
+
+    /**
+     * Returns the position of the first parent, or -1 if there's none.
+     */
+    int parent(int position) {
+        return parents[position];
+    }
+
+    /**
+     * Returns the position of the merged parent, or -1 if there's none.
+     */
+    int mergedParent(int position) {
+        return mergedParents[position];
+    }
+
+    int generation(int position) {
+        return generations[position];
+    }
+
+    long timestamp(int position) {
+        return timestamps[position];
+    }
+
+    /**
+     * Returns the positions of all ancestors of commit id, including itself.
+     */
+    BitSet ancestorPositions(String id) {
+        BitSet ancestors = new BitSet();
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = position(id);
+        ancestors.set(queue[0]);
+        while (head < tail) {
+            int position = queue[head++];
+            for (int parent : new int[] {parents[position], mergedParents[position]}) {
+                if (parent >= 0 && !ancestors.get(parent)) {
+                    ancestors.set(parent);
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = parent;
+                }
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * Returns ids of all ancestors of commit id, including itself.
+     */
+    HashSet<String> ancestorsOf(String id) {
+        BitSet ancestors = ancestorPositions(id);
+        HashSet<String> result = new HashSet<>();
+        for (int i = ancestors.nextSetBit(0); i >= 0; i = ancestors.nextSetBit(i + 1)) {
+            result.add(ids[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns if commit ancestor is commit id or one of its ancestors. Both
+     * must be in this repository. Commits of lower generation than ancestor
+     * can't lead to it, so the walk stops at them.
+     */
+    synchronized boolean isAncestor(String ancestor, String id) {
+        int target = position(ancestor);
+        int targetGeneration = generations[target];
+        BitSet visited = new BitSet();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(position(id));
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            if (p == target) {
+                return true;
+            }
+            for (int parent : new int[] {parents[p], mergedParents[p]}) {
+                if (parent >= 0 && !visited.get(parent) && generations[parent] >= targetGeneration) {
+                    visited.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns ids of commit tip and its ancestors that another repository
+     * doesn't have, according to has, parents before children. A repository
+     * that has a commit has all its ancestors, so the walk doesn't go past
+     * commits it has, and only visits the missing commits and their parents.
+     */
+    synchronized List<String> missing(String tip, Predicate<String> has) {
+        BitSet visited = new BitSet();
+        BitSet missing = new BitSet();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        int start = position(tip);
+        visited.set(start);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            if (has.test(ids[p])) {
+                continue;
+            }
+            missing.set(p);
+            for (int parent : new int[] {parents[p], mergedParents[p]}) {
+                if (parent >= 0 && !visited.get(parent)) {
+                    visited.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        // Commits are recorded after their parents, so positions are in order.
+        List<String> result = new ArrayList<>();
+        for (int p = missing.nextSetBit(0); p >= 0; p = missing.nextSetBit(p + 1)) {
+            result.add(ids[p]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns positions of the best common ancestors of the commits at p1
+     * and p2, i.e. common ancestors that aren't ancestors of any other
+     * common ancestor, newest first. There's more than one after criss-cross
+     * merges.
+     *
+     * Both sides are walked at once, highest generation first, marking each
+     * commit with the sides it's reachable from. A commit reachable from both
+     * is a best common ancestor unless it's already marked stale, and its
+     * ancestors are marked stale. The walk stops as soon as every queued
+     * commit is stale, since none of them can be a better candidate.
+     */
+    synchronized List<Integer> mergeBases(int p1, int p2) {
+        List<Integer> bases = new ArrayList<>();
+        if (p1 == p2) {
+            bases.add(p1);
+            return bases;
+        }
+        byte[] flags = new byte[size];
+        // Entries are position * 2 + 1 if they were queued before being stale.
+        PriorityQueue<Integer> queue = new PriorityQueue<>((e1, e2) -> compareNewest(e2 >> 1, e1 >> 1));
+        flags[p1] = PARENT1;
+        flags[p2] = PARENT2;
+        queue.add(p1 * 2 + 1);
+        queue.add(p2 * 2 + 1);
+        int nonStale = 2;
+        while (nonStale > 0) {
+            int entry = queue.poll();
+            nonStale -= entry & 1;
+            int position = entry >> 1;
+            byte marks = flags[position];
+            if ((marks & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2) && (marks & STALE) == 0) {
+                bases.add(position);
+                marks |= STALE;
+                flags[position] = marks;
+            }
+            nonStale += mark(flags, queue, parents[position], marks);
+            nonStale += mark(flags, queue, mergedParents[position], marks);
+        }
+        return bases;
+    }
+
+    /**
+     * Adds marks to the flags of parent and queues it, if it's missing any.
+     * Returns 1 if it's queued while not stale, otherwise 0.
+     */
+    private static int mark(byte[] flags, PriorityQueue<Integer> queue, int parent, byte marks) {
+        if (parent < 0 || (flags[parent] & marks) == marks) {
+            return 0;
+        }
+        flags[parent] |= marks;
+        int nonStale = (flags[parent] & STALE) == 0 ? 1 : 0;
+        queue.add(parent * 2 + nonStale);
+        return nonStale;
+    }
+
+    /**
+     * Compares commits at p1 and p2 by generation, then by timestamp.
+     * Larger means newer.
+     */
+    int compareNewest(int p1, int p2) {
+        if (generations[p1] != generations[p2]) {
+            return Integer.compare(generations[p1], generations[p2]);
+        }
+        if (timestamps[p1] != timestamps[p2]) {
+            return Long.compare(timestamps[p1], timestamps[p2]);
+        }
+        return Integer.compare(p1, p2);
+    }
+
+    /**
+     * Appends commit id to the graph, after its parents.
+     */
+    private void record(String id, String parentId, String mergedParentId, long timestamp) {
+        int parent = positionOrNone(parentId);
+        int mergedParent = positionOrNone(mergedParentId);
+        int generation = 1;
+        if (parent >= 0) {
+            generation = generations[parent] + 1;
+        }
+        if (mergedParent >= 0) {
+            generation = Math.max(generation, generations[mergedParent] + 1);
+        }
+        append(id, parent, mergedParent, generation, timestamp);
+    }
+
+    private int positionOrNone(String id) {
+        return id == null ? -1 : positions.get(id);
+    }
+
+    private void append(String id, int parent, int mergedParent, int generation, long timestamp) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            mergedParents = Arrays.copyOf(mergedParents, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        ids[size] = id;
+        parents[size] = parent;
+        mergedParents[size] = mergedParent;
+        generations[size] = generation;
+        timestamps[size] = timestamp;
+        positions.put(id, size);
+        size += 1;
+    }
+
+    /**
+     * Makes change to the graph, and appends the records it adds to the file
+     * while holding a lock on it. Records other processes appended are read
+     * first, so none is written over. A read-only graph is only changed.
+     */
+    private void update(Runnable change) {
+        if (readOnly) {
+            change.run();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(graphFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                long length = channel.size();
+                // A file shorter than what was read isn't the one that was read.
+                long start = length < fileLength ? 0 : fileLength;
+                ByteBuffer in = ByteBuffer.allocate((int) (length - start));
+                channel.read(in, start);
+                in.flip();
+                readFrom(in, start);
+                change.run();
+                save(channel);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Adds the whole records in, which is the file from offset start on.
+     * If they don't follow the records of the graph, the file is marked to
+     * be written again instead. A partly written last record is ignored.
+     */
+    private void readFrom(ByteBuffer in, long start) {
+        if (start == 0) {
+            if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC
+                    || in.getInt() != VERSION || size > 0) {
+                fileLength = 0;
+                return;
+            }
+            start = HEADER_BYTES;
+        }
+        byte[] id = new byte[ID_BYTES];
+        while (in.remaining() >= RECORD_BYTES) {
+            in.get(id);
+            String hexId = bytesToHex(id, 0, ID_BYTES);
+            if (positions.containsKey(hexId)) {
+                fileLength = 0;
+                return;
+            }
+            append(hexId, in.getInt(), in.getInt(), in.getInt(), in.getLong());
+            start += RECORD_BYTES;
+        }
+        fileLength = start;
+    }
+
+    /**
+     * Writes the records that aren't in the file yet after the records that
+     * are, or the whole graph if the file is to be written again. Only a
+     * partly written last record is cut off, unless the whole file is
+     * written again.
+     */
+    private void save(FileChannel channel) throws IOException {
+        int saved = fileLength == 0 ? 0 : (int) ((fileLength - HEADER_BYTES) / RECORD_BYTES);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + (size - saved) * RECORD_BYTES);
+        if (fileLength == 0) {
+            out.putInt(MAGIC).putInt(VERSION);
+        }
+        for (int i = saved; i < size; i += 1) {
+            out.put(hexToBytes(ids[i]));
+            out.putInt(parents[i]);
+            out.putInt(mergedParents[i]);
+            out.putInt(generations[i]);
+            out.putLong(timestamps[i]);
+        }
+        out.flip();
+        channel.truncate(fileLength);
+        fileLength += channel.write(out, fileLength);
+    }
+}
@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Config keeps settings of a repository that are chosen at init, such as
+ * the storage format of blobs. Settings are saved as a serialized map in
+ * the config file, and are looked up by the .gitlet directory, so remote
+ * repositories are read with their own settings.
+ *
+ * @author xianzhe233
+ */
+public class Config {
+    /**
+     * How loose blobs are stored, either "none" or "deflate".
+     */
+    static final String COMPRESSION = "compression";
+
+    /**
+     * Settings that have been read, keyed by their .gitlet directory.
+     */
+    private static final Map<File, HashMap<String, String>> LOADED = new HashMap<>();
+
+    /**
+     * Initializes config file of a new repository.
+     */
+    static void initConfig(boolean compressed) {
+        initConfig(Repository.GITLET_DIR, compressed);
+    }
+
+    static synchronized void initConfig(File gitletDir, boolean compressed) {
+        HashMap<String, String> settings = new HashMap<>();
+        settings.put(COMPRESSION, compressed ? "deflate" : "none");
+        writeObject(join(gitletDir, "config"), settings);
+        LOADED.put(gitletDir, settings);
+    }
+
+    /**
+     * Gets a setting of the repository at gitletDir, returns null if it's not set.
+     * Repositories created before config existed have no settings.
+     */
+    static synchronized String get(File gitletDir, String key) {
+        HashMap<String, String> settings = LOADED.get(gitletDir);
+        if (settings == null) {
+            File configFile = join(gitletDir, "config");
+            @SuppressWarnings("unchecked")
+            HashMap<String, String> saved = configFile.exists()
+                    ? readObject(configFile, HashMap.class) : new HashMap<>();
+            settings = saved;
+            LOADED.put(gitletDir, settings);
+        }
+        return settings.get(key);
+    }
+
+    /**
+     * Returns if loose blobs of the repository at gitletDir are deflated.
+     */
+    static boolean isCompressed(File gitletDir) {
+        return "deflate".equals(get(gitletDir, COMPRESSION));
+    }
+}
@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** A developer class whose main program kills gitlet at every crash point
+ *  of Journal during a few commands, and checks that the repository is
+ *  left either as it was before the command or as it is after it, and that
+ *  the next command works. It may be invoked as follows:
+ *      java gitlet.CrashHarness [SCENARIO...]
+ *  where SCENARIO is one of commit, merge, reset, rm-branch (default all).
+ *  Commands run in a fresh temporary directory, by java with the class
+ *  path of the harness. Prints one line per scenario and crash point, and
+ *  exits with status 1 if any check failed.
+ *  @author xianzhe233
+ */
+public class CrashHarness {
+
+    /** Scenarios by name: commands that set up the repository ("write NAME
+     *  TEXT" writes a file), and the command that is killed. */
+    private static final TreeMap<String, String[][]> SCENARIOS = new TreeMap<>();
+
+    static {
+        SCENARIOS.put("commit", new String[][] {
+            {"write a.txt one", "add a.txt", "commit one", "write a.txt two",
+             "write b.txt two", "add a.txt", "add b.txt"},
+            {"commit two"}});
+        SCENARIOS.put("merge", new String[][] {
+            {"write a.txt one", "add a.txt", "commit one", "branch other",
+             "write b.txt two", "add b.txt", "commit two", "checkout other",
+             "write c.txt three", "add c.txt", "commit three", "checkout master"},
+            {"merge other"}});
+        SCENARIOS.put("reset", new String[][] {
+            {"write a.txt one", "add a.txt", "commit one", "write a.txt two",
+             "add a.txt", "commit two", "write b.txt staged", "add b.txt"},
+            {"reset FIRST"}});
+        SCENARIOS.put("rm-branch", new String[][] {
+            {"branch other", "branch another"},
+            {"rm-branch other"}});
+    }
+
+    /** Number of checks that failed. */
+    private static int failures = 0;
+
+    /** Runs the scenarios named in ARGS, or all of them. */
+    public static void main(String... args) throws IOException, InterruptedException {
+        List<String> names = args.length == 0
+                ? new ArrayList<>(SCENARIOS.keySet()) : Arrays.asList(args);
+        for (String name : names) {
+            if (!SCENARIOS.containsKey(name)) {
+                System.out.println("No scenario with that name exists.");
+                return;
+            }
+            for (String crashPoint : Journal.CRASH_POINTS) {
+                check(name, crashPoint);
+            }
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /** Kills the command of scenario NAME at CRASHPOINT and checks the result. */
+    private static void check(String name, String crashPoint)
+            throws IOException, InterruptedException {
+        String[][] scenario = SCENARIOS.get(name);
+        File before = Files.createTempDirectory("gitlet-crash").toFile();
+        File after = Files.createTempDirectory("gitlet-crash").toFile();
+        File crashed = Files.createTempDirectory("gitlet-crash").toFile();
+        for (File dir : List.of(before, after, crashed)) {
+            run(dir, null, "init");
+            for (String command : scenario[0]) {
+                run(dir, null, command);
+            }
+        }
+        TreeMap<String, String> beforeState = state(before);
+        run(after, null, scenario[1][0].replace("FIRST", firstCommit(after)));
+        int status = run(crashed, crashPoint,
+                scenario[1][0].replace("FIRST", firstCommit(crashed)));
+        boolean journalLeft = join(crashed, ".gitlet", "journal").exists();
+        int recovered = run(crashed, null, "status");
+        TreeMap<String, String> crashedState = state(crashed);
+        boolean expectAfter = Journal.CRASH_POINTS.indexOf(crashPoint)
+                > Journal.CRASH_POINTS.indexOf("torn-journal");
+        TreeMap<String, String> expected = expectAfter ? state(after) : beforeState;
+
+        List<String> problems = new ArrayList<>();
+        if (status != Journal.CRASH_STATUS) {
+            problems.add("not killed (exit " + status + ")");
+        }
+        if (recovered != 0) {
+            problems.add("status failed after the crash");
+        }
+        if (join(crashed, ".gitlet", "journal").exists()) {
+            problems.add("journal left after recovery");
+        }
+        if (!crashedState.equals(expected)) {
+            problems.add("expected the state " + (expectAfter ? "after" : "before")
+                    + " the command, got " + crashedState);
+        }
+        System.out.printf("%-10s %-15s journal %-5s %s%n", name, crashPoint,
+                journalLeft ? "left" : "none", problems.isEmpty() ? "ok" : problems);
+        failures += problems.isEmpty() ? 0 : 1;
+    }
+
+    /** Returns the id of the commit with message "one" in repository DIR. */
+    private static String firstCommit(File dir) {
+        File commitDir = join(dir, ".gitlet", "commits");
+        for (File subDir : commitDir.listFiles(File::isDirectory)) {
+            for (String tail : plainFilenamesIn(subDir)) {
+                String id = subDir.getName() + tail;
+                if (Commit.get(commitDir, id).getMessage().equals("one")) {
+                    return id;
+                }
+            }
+        }
+        return "FIRST";
+    }
+
+    /** Returns the files that commands change at once in repository DIR:
+     *  head, branches and the staging area, by path. Branches read as the
+     *  messages of their commits, since the same commands make different
+     *  commit ids in each run. */
+    private static TreeMap<String, String> state(File dir) throws IOException {
+        File gitletDir = join(dir, ".gitlet");
+        // Other processes may have added commits since the filter was loaded.
+        Bloom.recheck();
+        TreeMap<String, String> state = new TreeMap<>();
+        state.put("head", readContentsAsString(join(gitletDir, "head")));
+        try (Stream<Path> branches = Files.walk(join(gitletDir, "branches").toPath())) {
+            for (Path branch : (Iterable<Path>) branches.filter(Files::isRegularFile)::iterator) {
+                String id = readContentsAsString(branch.toFile());
+                state.put("branches/" + branch.getFileName(),
+                        Commit.get(join(gitletDir, "commits"), id).getMessage());
+            }
+        }
+        state.put("addition", readObject(join(gitletDir, "stagingArea", "addition"),
+                HashMap.class).toString());
+        state.put("removal", readObject(join(gitletDir, "stagingArea", "removal"),
+                HashSet.class).toString());
+        return state;
+    }
+
+    /** Runs gitlet COMMAND in DIR, killed at CRASHPOINT unless it's null,
+     *  returns its exit status. */
+    private static int run(File dir, String crashPoint, String command)
+            throws IOException, InterruptedException {
+        if (command.startsWith("write ")) {
+            String[] words = command.split(" ");
+            writeContents(join(dir, words[1]), words[2] + "\n");
+            return 0;
+        }
+        List<String> processArgs = new ArrayList<>(List.of(
+                join(System.getProperty("java.home"), "bin", "java").getPath(),
+                "-cp", System.getProperty("java.class.path")));
+        if (crashPoint != null) {
+            processArgs.add("-Dgitlet.crashAt=" + crashPoint);
+        }
+        processArgs.add("gitlet.Main");
+        processArgs.addAll(Arrays.asList(command.split(" ")));
+        Process process = new ProcessBuilder(processArgs).directory(dir)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        return process.waitFor();
+    }
+}
@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.GitletException.*;
+import static gitlet.Utils.*;
+
+/**
+ * Daemon runs gitlet commands for the repository in CWD in one long-running
+ * JVM, so the caches that stay valid between commands (commit graph,
+ * decoded commits, packs, the stat index, config) are loaded only once,
+ * and commands don't pay for starting a JVM that loads them again.
+ *
+ * "gitlet daemon" serves commands on the Unix domain socket daemon.sock in
+ * the .gitlet directory, one at a time, until "gitlet daemon stop". While
+ * the socket exists, Main sends its arguments to the daemon and prints
+ * what comes back instead of running the command itself. If nothing
+ * accepts on the socket, Main runs the command as usual.
+ *
+ * Request:  count | argument...        (arguments as modified UTF-8)
+ * Response: frame... | EXIT | status
+ *           frame = OUT or ERR | length | bytes written to System.out or System.err
+ *
+ * @author xianzhe233
+ */
+public class Daemon {
+    /**
+     * The socket file of the daemon of the repository in CWD.
+     */
+    static final File SOCKET_FILE = join(Repository.GITLET_DIR, "daemon.sock");
+    /**
+     * Returned by forward() if no daemon ran the command.
+     */
+    static final int NOT_FORWARDED = -1;
+
+    private static final byte OUT = 1;
+    private static final byte ERR = 2;
+    private static final byte EXIT = 3;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes everything written to it as frames of kind to out.
+     */
+    private static class FrameStream extends OutputStream {
+        private final byte kind;
+        private final DataOutputStream out;
+
+        FrameStream(byte kind, DataOutputStream out) {
+            this.kind = kind;
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized (out) {
+                out.writeByte(kind);
+                out.writeInt(length);
+                out.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Runs a command on the daemon of the repository in CWD, printing its
+     * output. Returns its exit status, or NOT_FORWARDED if there's no daemon
+     * to run it, or if it's the command that starts one.
+     */
+    static int forward(String[] args) {
+        if (!SOCKET_FILE.exists() || (args.length == 1 && args[0].equals("daemon"))) {
+            return NOT_FORWARDED;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+        } catch (IOException excp) {
+            return NOT_FORWARDED; // Left by a daemon that was killed.
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel), BUFFER_SIZE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (byte kind = in.readByte(); kind != EXIT; kind = in.readByte()) {
+                PrintStream target = kind == OUT ? System.out : System.err;
+                for (int length = in.readInt(); length > 0; ) {
+                    int n = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (n < 0) {
+                        throw new IOException("daemon closed the connection");
+                    }
+                    target.write(buffer, 0, n);
+                    length -= n;
+                }
+            }
+            System.out.flush();
+            return in.readInt();
+        } catch (IOException excp) {
+            // The command may have run, so it isn't run again here.
+            System.err.println("Lost the connection to the daemon: " + excp.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Returns if a daemon accepts connections at the socket file. A socket
+     * file no daemon serves is left from one that crashed, and is deleted.
+     */
+    private static boolean isServed() {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(SOCKET_FILE.toPath())).close();
+            return true;
+        } catch (IOException excp) {
+            SOCKET_FILE.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Serves commands until it's told to stop. Only one daemon can serve a
+     * repository.
+     */
+    static void serve() {
+        if (SOCKET_FILE.exists() && isServed()) {
+            throw daemonAlreadyRunningException();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            boolean serving = true;
+            while (serving) {
+                try (SocketChannel client = server.accept()) {
+                    serving = handle(client);
+                } catch (IOException excp) {
+                    // The client went away, the next one is served.
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /**
+     * Runs the command a client sent with its output sent back to the client.
+     * Returns false if the command was to stop the daemon.
+     */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), BUFFER_SIZE));
+        boolean stop = args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+        int status = stop ? 0 : run(args, out);
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+        return !stop;
+    }
+
+    /**
+     * Runs a command like Main does, with System.out and System.err sent
+     * to out, returns its exit status.
+     */
+    private static int run(String[] args, DataOutputStream out) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(new PrintStream(new BufferedOutputStream(
+                new FrameStream(OUT, out), BUFFER_SIZE)));
+        System.setErr(new PrintStream(new BufferedOutputStream(
+                new FrameStream(ERR, out), BUFFER_SIZE)));
+        try {
+            Command.process(args);
+            return 0;
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            return 0;
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            return 1;
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+}
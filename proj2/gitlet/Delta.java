@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Delta encodes a blob as the difference from another blob (its base),
+ * so that similar versions of a file can be packed in little space.
+ *
+ * A delta is: base length | target length | instruction...
+ * where lengths are varints, and each instruction either copies a range
+ * of the base (COPY | offset | length), or inserts the next 1 to 127
+ * literal bytes (that count as a byte, followed by the bytes).
+ *
+ * @author xianzhe233
+ */
+public class Delta {
+    /**
+     * Length of blocks of the base that are indexed to find matches.
+     */
+    private static final int BLOCK = 16;
+    private static final int COPY = 0x80;
+    private static final int MAX_INSERT = 0x7f;
+
+    /**
+     * Returns a delta that turns base into target.
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int insertStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer match = blocks.get(hash(target, i));
+            if (match == null || !Arrays.equals(base, match, match + BLOCK,
+                    target, i, i + BLOCK)) {
+                i += 1;
+                continue;
+            }
+            // Extend the match backwards over pending literals, then forwards.
+            int baseStart = match;
+            int targetStart = i;
+            while (baseStart > 0 && targetStart > insertStart
+                    && base[baseStart - 1] == target[targetStart - 1]) {
+                baseStart -= 1;
+                targetStart -= 1;
+            }
+            int length = i - targetStart + BLOCK;
+            while (baseStart + length < base.length && targetStart + length < target.length
+                    && base[baseStart + length] == target[targetStart + length]) {
+                length += 1;
+            }
+            writeInsert(out, target, insertStart, targetStart);
+            out.write(COPY);
+            writeVarint(out, baseStart);
+            writeVarint(out, length);
+            i = targetStart + length;
+            insertStart = i;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the target of a delta that starts at offset of delta, by
+     * applying it to base.
+     */
+    static byte[] apply(byte[] base, byte[] delta, int offset) {
+        ByteBuffer in = ByteBuffer.wrap(delta, offset, delta.length - offset);
+        if (readVarint(in) != base.length) {
+            throw new IllegalArgumentException("delta applied to wrong base");
+        }
+        byte[] target = new byte[readVarint(in)];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            int op = in.get() & 0xff;
+            if (op == COPY) {
+                int baseStart = readVarint(in);
+                int length = readVarint(in);
+                System.arraycopy(base, baseStart, target, pos, length);
+                pos += length;
+            } else {
+                in.get(target, pos, op);
+                pos += op;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Writes literal bytes target[start, end) as insert instructions.
+     */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int start, int end) {
+        while (start < end) {
+            int length = Math.min(MAX_INSERT, end - start);
+            out.write(length);
+            out.write(target, start, length);
+            start += length;
+        }
+    }
+
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = 31 * h + bytes[i];
+        }
+        return h;
+    }
+}
@@ -0,0 +1,372 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Diff finds the lines that differ between two files, as a short list
+ * of hunks that turn the lines of one into the lines of the other.
+ *
+ * Files are kept as their bytes with the offset where each line starts,
+ * and a hash of each line, so lines are compared without being copied
+ * into Strings, and most unequal lines by their hashes alone.
+ *
+ * The hunks are found with Myers' O(ND) algorithm in its linear-space
+ * form: the middle snake of an edit path is found by searching from both
+ * ends at once, and the halves on each side of it are diffed in turn.
+ * Lines the files start or end with in common are skipped first.
+ *
+ * Myers' algorithm takes time proportional to the number of lines times
+ * the number of differences, which is too slow for large files with many
+ * scattered changes. So files of more than PATIENCE_LINES lines are first
+ * split at anchors, as in patience diff: the longest run of lines that
+ * occur exactly once in each file and are in the same order in both. Only
+ * the parts between anchors are diffed with Myers' algorithm. The result
+ * may then have a few more changed lines than the shortest one.
+ *
+ * @author xianzhe233
+ */
+public class Diff {
+    /**
+     * Number of lines of two files above which they're split at anchors.
+     */
+    private static final int PATIENCE_LINES = 4096;
+
+    /**
+     * The lines of a file. A line ends after '\n', or at the end of the file.
+     */
+    static class Lines {
+        final byte[] bytes;
+        /**
+         * Offset of each line in bytes, and bytes.length after the last line.
+         */
+        private final int[] starts;
+        private final int[] hashes;
+
+        Lines(byte[] bytes) {
+            this.bytes = bytes;
+            int count = 0;
+            for (int i = 0; i < bytes.length; i += 1) {
+                if (bytes[i] == '\n') {
+                    count += 1;
+                }
+            }
+            if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') {
+                count += 1;
+            }
+            starts = new int[count + 1];
+            hashes = new int[count];
+            int line = 0;
+            int hash = 1;
+            for (int i = 0; i < bytes.length; i += 1) {
+                hash = 31 * hash + bytes[i];
+                if (bytes[i] == '\n' || i == bytes.length - 1) {
+                    hashes[line] = hash;
+                    line += 1;
+                    starts[line] = i + 1;
+                    hash = 1;
+                }
+            }
+        }
+
+        /**
+         * Returns the number of lines.
+         */
+        int size() {
+            return hashes.length;
+        }
+
+        /**
+         * Returns the offset where line i starts, or the length of the file
+         * if i is size().
+         */
+        int start(int i) {
+            return starts[i];
+        }
+
+        /**
+         * Returns if line i is the same as line j of other.
+         */
+        boolean same(int i, Lines other, int j) {
+            return hashes[i] == other.hashes[j]
+                    && Arrays.equals(bytes, starts[i], starts[i + 1],
+                            other.bytes, other.starts[j], other.starts[j + 1]);
+        }
+
+        /**
+         * Returns if lines from to to are the same as lines otherFrom to
+         * otherTo of other.
+         */
+        boolean same(int from, int to, Lines other, int otherFrom, int otherTo) {
+            if (to - from != otherTo - otherFrom) {
+                return false;
+            }
+            for (int i = from, j = otherFrom; i < to; i += 1, j += 1) {
+                if (!same(i, other, j)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Writes lines from to to to out.
+         */
+        void write(int from, int to, OutputStream out) throws IOException {
+            out.write(bytes, starts[from], starts[to] - starts[from]);
+        }
+    }
+
+    /**
+     * Lines aStart to aEnd of file a, which are replaced by lines bStart to
+     * bEnd of file b. One of the two ranges may be empty.
+     */
+    static class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /**
+     * Returns the hunks that turn a into b, in order, as few as Myers'
+     * algorithm finds unless the files are split at anchors. Hunks never touch:
+     * there's at least one unchanged line between two of them.
+     */
+    static List<Hunk> diff(Lines a, Lines b) {
+        List<Hunk> hunks = new ArrayList<>();
+        if (a.size() + b.size() > PATIENCE_LINES) {
+            int aLo = 0;
+            int bLo = 0;
+            for (int[] anchor : anchors(a, b)) {
+                diff(a, aLo, anchor[0], b, bLo, anchor[1], hunks);
+                aLo = anchor[0] + 1;
+                bLo = anchor[1] + 1;
+            }
+            diff(a, aLo, a.size(), b, bLo, b.size(), hunks);
+        } else {
+            diff(a, 0, a.size(), b, 0, b.size(), hunks);
+        }
+        return hunks;
+    }
+
+    /**
+     * A line of a file as a key of a hash map.
+     */
+    private static class LineKey {
+        private final Lines lines;
+        private final int line;
+
+        LineKey(Lines lines, int line) {
+            this.lines = lines;
+            this.line = line;
+        }
+
+        @Override
+        public int hashCode() {
+            return lines.hashes[line];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LineKey)) {
+                return false;
+            }
+            LineKey other = (LineKey) o;
+            return lines.same(line, other.lines, other.line);
+        }
+    }
+
+    /**
+     * Returns the positions {i, j} of the longest sequence of lines that
+     * occur once in a and once in b, in increasing order in both.
+     */
+    private static List<int[]> anchors(Lines a, Lines b) {
+        // Count and last position of each line in a, then in b.
+        HashMap<LineKey, int[]> occurrences = new HashMap<>();
+        for (int i = 0; i < a.size(); i += 1) {
+            int[] occurrence = occurrences.computeIfAbsent(new LineKey(a, i),
+                    key -> new int[] {0, -1, 0, -1});
+            occurrence[0] += 1;
+            occurrence[1] = i;
+        }
+        for (int j = 0; j < b.size(); j += 1) {
+            int[] occurrence = occurrences.get(new LineKey(b, j));
+            if (occurrence != null) {
+                occurrence[2] += 1;
+                occurrence[3] = j;
+            }
+        }
+        List<int[]> unique = new ArrayList<>();
+        for (int i = 0; i < a.size(); i += 1) {
+            int[] occurrence = occurrences.get(new LineKey(a, i));
+            if (occurrence[0] == 1 && occurrence[2] == 1) {
+                unique.add(new int[] {i, occurrence[3]});
+            }
+        }
+
+        // Longest increasing run of positions in b, by patience sorting:
+        // tails[k] is the pair ending the best run of length k + 1 so far.
+        int[] tails = new int[unique.size()];
+        int[] previous = new int[unique.size()];
+        int length = 0;
+        for (int p = 0; p < unique.size(); p += 1) {
+            int j = unique.get(p)[1];
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (unique.get(tails[mid])[1] < j) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[p] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = p;
+            length = Math.max(length, lo + 1);
+        }
+        int[][] anchors = new int[length][];
+        for (int p = length > 0 ? tails[length - 1] : -1, k = length - 1; p >= 0;
+             p = previous[p], k -= 1) {
+            anchors[k] = unique.get(p);
+        }
+        return Arrays.asList(anchors);
+    }
+
+    private static void diff(Lines a, int aLo, int aHi, Lines b, int bLo, int bHi,
+                             List<Hunk> hunks) {
+        while (aLo < aHi && bLo < bHi && a.same(aLo, b, bLo)) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a.same(aHi - 1, b, bHi - 1)) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                add(hunks, aLo, aHi, bLo, bHi);
+            }
+            return;
+        }
+        int[] split = middleSnake(a, aLo, aHi, b, bLo, bHi);
+        if (split == null) {
+            add(hunks, aLo, aHi, bLo, bHi);
+            return;
+        }
+        diff(a, aLo, split[0], b, bLo, split[1], hunks);
+        diff(a, split[0], aHi, b, split[1], bHi, hunks);
+    }
+
+    /**
+     * Adds a hunk, joined with the last one if they touch.
+     */
+    private static void add(List<Hunk> hunks, int aStart, int aEnd, int bStart, int bEnd) {
+        if (!hunks.isEmpty()) {
+            Hunk last = hunks.get(hunks.size() - 1);
+            if (last.aEnd == aStart && last.bEnd == bStart) {
+                hunks.set(hunks.size() - 1, new Hunk(last.aStart, aEnd, last.bStart, bEnd));
+                return;
+            }
+        }
+        hunks.add(new Hunk(aStart, aEnd, bStart, bEnd));
+    }
+
+    /**
+     * Returns the point {x, y} where a shortest edit path from (aLo, bLo) to
+     * (aHi, bHi) crosses the middle snake, or null if the ranges have no
+     * line in common. forward[k] is the furthest x reached on diagonal
+     * x - y = k from the start, backward[k] the furthest distance reached
+     * from the end.
+     */
+    private static int[] middleSnake(Lines a, int aLo, int aHi, Lines b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // If delta is odd, the paths meet during a forward step.
+        boolean front = (delta & 1) != 0;
+        int k1Start = 0;
+        int k1End = 0;
+        int k2Start = 0;
+        int k2End = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a.same(aLo + x1, b, bLo + y1)) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1
+                            && x1 >= n - backward[k2Offset]) {
+                        return new int[] {aLo + x1, bLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1])) {
+                    x2 = backward[k2Offset + 1];
+                } else {
+                    x2 = backward[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a.same(aHi - x2 - 1, b, bHi - y2 - 1)) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -137,6 +137,10 @@ class GitletException extends RuntimeException {
         return new GitletException("Encountered a merge conflict.");
     }
 
+    static GitletException diffCommitNotExistException() {
+        return new GitletException("No commit with that id exists.");
+    }
+
     static GitletException remoteAlreadyExistsException() {
         return new GitletException("A remote with that name already exists.");
     }
@@ -157,4 +161,12 @@ class GitletException extends RuntimeException {
         return new GitletException("That remote does not have that branch.");
     }
 
+    static GitletException daemonAlreadyRunningException() {
+        return new GitletException("A daemon is already running.");
+    }
+
+    static GitletException daemonNotRunningException() {
+        return new GitletException("No daemon is running.");
+    }
+
 }
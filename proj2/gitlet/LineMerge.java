@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * LineMerge merges two versions of a file line by line, given the version
+ * they both started from, for merge.
+ *
+ * Each version is diffed against the base. Hunks of the two diffs that
+ * overlap or touch in the base make one region: if only one version
+ * changed the region, or both changed it the same way, it's taken as
+ * changed, otherwise it's a conflict, written between conflict markers
+ * like a whole file in conflict. Lines outside all regions are the same
+ * in all three versions.
+ *
+ * @author xianzhe233
+ */
+public class LineMerge {
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Writes the merge of ours and theirs, both changed from base, to out.
+     * Returns the number of conflicts.
+     */
+    static int merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out)
+            throws IOException {
+        Diff.Lines baseLines = new Diff.Lines(base);
+        Diff.Lines ourLines = new Diff.Lines(ours);
+        Diff.Lines theirLines = new Diff.Lines(theirs);
+        List<Diff.Hunk> ourHunks = Diff.diff(baseLines, ourLines);
+        List<Diff.Hunk> theirHunks = Diff.diff(baseLines, theirLines);
+
+        int conflicts = 0;
+        int basePos = 0;
+        int i = 0;
+        int j = 0;
+        // Offsets from lines of base to lines of ours and theirs before the region.
+        int ourDelta = 0;
+        int theirDelta = 0;
+        while (i < ourHunks.size() || j < theirHunks.size()) {
+            int lo = Math.min(i < ourHunks.size() ? ourHunks.get(i).aStart : Integer.MAX_VALUE,
+                    j < theirHunks.size() ? theirHunks.get(j).aStart : Integer.MAX_VALUE);
+            int hi = lo;
+            int firstOurs = i;
+            int firstTheirs = j;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                if (i < ourHunks.size() && ourHunks.get(i).aStart <= hi) {
+                    hi = Math.max(hi, ourHunks.get(i).aEnd);
+                    i += 1;
+                    grown = true;
+                }
+                if (j < theirHunks.size() && theirHunks.get(j).aStart <= hi) {
+                    hi = Math.max(hi, theirHunks.get(j).aEnd);
+                    j += 1;
+                    grown = true;
+                }
+            }
+            baseLines.write(basePos, lo, out);
+            int ourStart = lo + ourDelta;
+            int theirStart = lo + theirDelta;
+            if (i > firstOurs) {
+                Diff.Hunk last = ourHunks.get(i - 1);
+                ourDelta = last.bEnd - last.aEnd;
+            }
+            if (j > firstTheirs) {
+                Diff.Hunk last = theirHunks.get(j - 1);
+                theirDelta = last.bEnd - last.aEnd;
+            }
+            int ourEnd = hi + ourDelta;
+            int theirEnd = hi + theirDelta;
+            if (j == firstTheirs
+                    || ourLines.same(ourStart, ourEnd, theirLines, theirStart, theirEnd)) {
+                ourLines.write(ourStart, ourEnd, out);
+            } else if (i == firstOurs) {
+                theirLines.write(theirStart, theirEnd, out);
+            } else {
+                out.write(OURS_MARKER);
+                ourLines.write(ourStart, ourEnd, out);
+                out.write(SEPARATOR);
+                theirLines.write(theirStart, theirEnd, out);
+                out.write(THEIRS_MARKER);
+                conflicts += 1;
+            }
+            basePos = hi;
+        }
+        baseLines.write(basePos, baseLines.size(), out);
+        return conflicts;
+    }
+}
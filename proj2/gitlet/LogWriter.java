@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * LogWriter prints the commits of log and global-log as they're walked,
+ * through one large buffer instead of a flush per line, and tells the walk
+ * when to stop: after maxCount commits, or, for log, at the first commit
+ * older than since. Commits older than since are never printed.
+ *
+ * @author xianzhe233
+ */
+public class LogWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out), BUFFER_SIZE));
+    private final int maxCount;
+    private final long since;
+    private int count = 0;
+
+    /**
+     * Makes a writer that prints at most maxCount commits, none made before
+     * the timestamp since.
+     */
+    LogWriter(int maxCount, long since) {
+        this.maxCount = maxCount;
+        this.since = since;
+    }
+
+    /**
+     * Returns if commit is too old to be printed.
+     */
+    boolean isTooOld(Commit commit) {
+        return commit.getTimestamp() < since;
+    }
+
+    /**
+     * Returns if no more commits will be printed.
+     */
+    boolean isFull() {
+        return count >= maxCount;
+    }
+
+    /**
+     * Prints commit unless it's too old, returns false if the walk should stop.
+     */
+    boolean write(Commit commit) {
+        if (!isTooOld(commit)) {
+            commit.print(out);
+            count += 1;
+        }
+        return !isFull();
+    }
+
+    /**
+     * Flushes what was printed. System.out stays open.
+     */
+    @Override
+    public void close() {
+        out.flush();
+    }
+}
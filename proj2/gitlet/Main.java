@@ -10,8 +10,16 @@ public class Main {
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND1> <OPERAND2> ...
+     * The command is run by the repository's daemon if one is running.
      */
     public static void main(String[] args) {
+        int status = Daemon.forward(args);
+        if (status != Daemon.NOT_FORWARDED) {
+            if (status != 0) {
+                System.exit(status);
+            }
+            return;
+        }
         try {
             Command.process(args);
         } catch (GitletException e) {
@@ -0,0 +1,268 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * MessageIndex maps commit messages, and the words in them, to the ids of
+ * the commits with those messages, so find doesn't read every commit of a
+ * repository to compare messages.
+ *
+ * The index is saved in the messages file, which is only appended to.
+ * A commit's message is appended before the commit's file is in place, so
+ * the index has every commit that exists, and find only needs to check
+ * that the commits it found exist. A repository without the file (e.g. one
+ * made before the index) gets one built from all its commits when it's
+ * first searched. Until then commits aren't appended, so an index is
+ * never missing older commits.
+ *
+ * File:   "GMSG" | version | record...
+ *         record = id (20 bytes) | length | message (UTF-8)
+ *         A partly written last record is ignored and written over.
+ *
+ * Words are runs of letters and digits, compared ignoring case.
+ *
+ * @author xianzhe233
+ */
+public class MessageIndex {
+    private static final int MAGIC = 0x474d5347; // "GMSG"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /**
+     * Indexes that have been loaded, by .gitlet directory.
+     */
+    private static final Map<File, MessageIndex> LOADED = new HashMap<>();
+
+    private final File indexFile;
+    /**
+     * Commit ids by message and by word, in the order they were added.
+     */
+    private final LinkedHashMap<String, List<String>> byMessage = new LinkedHashMap<>();
+    private final HashMap<String, List<String>> byWord = new HashMap<>();
+    /**
+     * Length of the file up to its last whole record.
+     */
+    private long fileLength = 0;
+
+    private MessageIndex(File gitletDir) {
+        this.indexFile = join(gitletDir, "messages");
+        if (indexFile.exists()) {
+            read();
+        } else {
+            build(join(gitletDir, "commits"));
+        }
+    }
+
+    /**
+     * Returns the index of the repository at gitletDir, with the commits
+     * other processes added since it was last used.
+     */
+    static synchronized MessageIndex of(File gitletDir) {
+        MessageIndex index = LOADED.computeIfAbsent(Journal.keyOf(gitletDir), MessageIndex::new);
+        index.refresh();
+        return index;
+    }
+
+    /**
+     * Adds commit to the index of the repository that has commitDir, if
+     * it has an index. Call this before the commit's file is in place.
+     */
+    static synchronized void added(File commitDir, Commit commit) {
+        File gitletDir = commitDir.getParentFile();
+        if (LOADED.containsKey(Journal.keyOf(gitletDir)) || join(gitletDir, "messages").exists()) {
+            of(gitletDir).append(commit.id, commit.getMessage());
+        }
+    }
+
+    /**
+     * Returns ids of commits whose message is message.
+     */
+    synchronized List<String> find(String message) {
+        return new ArrayList<>(byMessage.getOrDefault(message, Collections.emptyList()));
+    }
+
+    /**
+     * Returns ids of commits whose message contains text.
+     */
+    synchronized List<String> findContaining(String text) {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : byMessage.entrySet()) {
+            if (entry.getKey().contains(text)) {
+                result.addAll(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns ids of commits whose message has every word of text.
+     */
+    synchronized List<String> findWords(String text) {
+        List<String> words = words(text);
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Intersects starting from the rarest word.
+        words.sort((w1, w2) -> Integer.compare(idsOfWord(w1).size(), idsOfWord(w2).size()));
+        LinkedHashSet<String> result = new LinkedHashSet<>(idsOfWord(words.get(0)));
+        for (String word : words.subList(1, words.size())) {
+            result.retainAll(new LinkedHashSet<>(idsOfWord(word)));
+        }
+        return new ArrayList<>(result);
+    }
+
+    private List<String> idsOfWord(String word) {
+        return byWord.getOrDefault(word, Collections.emptyList());
+    }
+
+    private void add(String id, String message) {
+        byMessage.computeIfAbsent(message, m -> new ArrayList<>()).add(id);
+        for (String word : new LinkedHashSet<>(words(message))) {
+            byWord.computeIfAbsent(word, w -> new ArrayList<>()).add(id);
+        }
+    }
+
+    /**
+     * Returns the words of text, lower-cased.
+     */
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private void append(String id, String message) {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(ID_BYTES + Integer.BYTES + messageBytes.length);
+        out.put(hexToBytes(id)).putInt(messageBytes.length).put(messageBytes);
+        out.flip();
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(fileLength);
+            fileLength += channel.write(out, fileLength);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.added(indexFile);
+        add(id, message);
+    }
+
+    /**
+     * Reads the index file, or builds it again if it isn't an index.
+     */
+    private void read() {
+        ByteBuffer in = ByteBuffer.wrap(readContents(indexFile));
+        if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            build(join(indexFile.getParentFile(), "commits"));
+            return;
+        }
+        fileLength = HEADER_BYTES + readRecords(in);
+    }
+
+    /**
+     * Adds the whole records from in's position on, returns the number of
+     * bytes they take.
+     */
+    private int readRecords(ByteBuffer in) {
+        byte[] id = new byte[ID_BYTES];
+        int start = in.position();
+        int end = start;
+        while (in.remaining() >= ID_BYTES + Integer.BYTES) {
+            in.get(id);
+            int length = in.getInt();
+            if (length < 0 || in.remaining() < length) {
+                break;
+            }
+            String message = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            add(bytesToHex(id, 0, ID_BYTES), message);
+            end = in.position();
+        }
+        return end - start;
+    }
+
+    /**
+     * Reads records appended by other processes, or the whole file if it
+     * got shorter.
+     */
+    private void refresh() {
+        long length = indexFile.length();
+        if (length == fileLength) {
+            return;
+        }
+        if (length < fileLength) {
+            byMessage.clear();
+            byWord.clear();
+            fileLength = 0;
+            if (indexFile.exists()) {
+                read();
+            } else {
+                build(join(indexFile.getParentFile(), "commits"));
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath())) {
+            ByteBuffer added = ByteBuffer.allocate((int) (length - fileLength));
+            channel.read(added, fileLength);
+            added.flip();
+            fileLength += readRecords(added);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Indexes every commit in commitDir, loose or packed, and saves the index.
+     */
+    private void build(File commitDir) {
+        byMessage.clear();
+        byWord.clear();
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+        File[] subDirs = commitDir.listFiles(File::isDirectory);
+        if (subDirs != null) {
+            for (File subDir : subDirs) {
+                for (String tail : plainFilenamesIn(subDir)) {
+                    ids.add(subDir.getName() + tail);
+                }
+            }
+        }
+        Pack.idsOf(Pack.packDirOf(commitDir), Pack.COMMIT, ids);
+        List<byte[]> records = new ArrayList<>();
+        int size = HEADER_BYTES;
+        for (String id : ids) {
+            String message = Commit.get(commitDir, id).getMessage();
+            byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+            byte[] record = ByteBuffer.allocate(ID_BYTES + Integer.BYTES + messageBytes.length)
+                    .put(hexToBytes(id)).putInt(messageBytes.length).put(messageBytes).array();
+            records.add(record);
+            size += record.length;
+            add(id, message);
+        }
+        ByteBuffer file = ByteBuffer.allocate(size).putInt(MAGIC).putInt(VERSION);
+        for (byte[] record : records) {
+            file.put(record);
+        }
+        Journal.saveObject(indexFile.getParentFile(), indexFile, file.array());
+        fileLength = size;
+    }
+}
@@ -0,0 +1,600 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Pack stores many gitlet objects in a single append-only data file, along
+ * with an index file that maps sorted SHA-1 ids to offsets in the data file.
+ * Loose objects (one file per commit, tree or blob) are migrated into packs by
+ * the gc command, so big repositories don't need a file for every object.
+ *
+ * Data file:  "GPAK" | version | count | entry...
+ *             entry = type (1 byte) | length (4 bytes) | content
+ *             The DEFLATED bit of an entry's type means its content is
+ *             deflated, which gc does in compressed repositories. The
+ *             DELTA bit means the content is a base id (20 bytes) and a
+ *             Delta against that base, which is in the same pack.
+ * Index file: "GIDX" | version | count | fanout (256 ints)
+ *             | ids (20 bytes each, sorted) | types (1 byte each)
+ *             | offsets (8 bytes each)
+ *
+ * fanout[b] is the number of ids whose first byte is at most b, so ids
+ * starting with byte b are at positions [fanout[b - 1], fanout[b]).
+ * Index files are memory-mapped, and looking up a (possibly abbreviated)
+ * id is a binary search inside its fanout range without any allocation.
+ * Packs may be read from several threads at once.
+ *
+ * @author xianzhe233
+ */
+public class Pack {
+    /**
+     * The packs directory.
+     */
+    static final File PACKS_DIR = join(Repository.GITLET_DIR, "packs");
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+    static final byte TREE = 3;
+    private static final byte DEFLATED = 0x40;
+    private static final byte DELTA = 0x20;
+    /**
+     * Longest chain of deltas to follow to reconstruct a blob.
+     */
+    private static final int MAX_DEPTH = 10;
+    /**
+     * Total size of reconstructed delta bases to keep in memory.
+     */
+    private static final long MAX_CACHED_BASES = 32L << 20;
+
+    private static final int PACK_MAGIC = 0x4750414b; // "GPAK"
+    private static final int INDEX_MAGIC = 0x47494458; // "GIDX"
+    private static final int VERSION = 2;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int FANOUT_START = 12;
+    private static final int IDS_START = FANOUT_START + 256 * Integer.BYTES;
+
+    /**
+     * Packs that have been loaded, keyed by their packs directory.
+     */
+    private static final Map<File, List<Pack>> LOADED = new HashMap<>();
+    /**
+     * Contents of recently used delta bases, least recently used first.
+     */
+    private static final LinkedHashMap<String, byte[]> BASES =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBaseBytes = 0;
+
+    private final File packFile;
+    private final MappedByteBuffer index;
+    private final int count;
+    private final int typesStart;
+    private final int offsetsStart;
+    private RandomAccessFile data;
+
+    private Pack(File packFile, File indexFile) {
+        this.packFile = packFile;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath())) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad pack index " + indexFile);
+        }
+        count = index.getInt(8);
+        typesStart = IDS_START + count * ID_BYTES;
+        offsetsStart = typesStart + count;
+    }
+
+    /**
+     * Returns the packs directory of the repository whose objects of some
+     * kind live in objectDir (e.g. .../.gitlet/commits).
+     */
+    static File packDirOf(File objectDir) {
+        return join(objectDir.getParentFile(), "packs");
+    }
+
+    /**
+     * Returns all packs in packDir.
+     */
+    static synchronized List<Pack> packsIn(File packDir) {
+        List<Pack> packs = LOADED.get(packDir);
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        String base = name.substring(0, name.length() - 4);
+                        packs.add(new Pack(join(packDir, base + ".pack"), join(packDir, name)));
+                    }
+                }
+            }
+            LOADED.put(packDir, packs);
+        }
+        return packs;
+    }
+
+    /**
+     * Returns the content of object with id in packDir, or null if no pack has it.
+     */
+    static byte[] read(File packDir, String id) {
+        for (Pack pack : packsIn(packDir)) {
+            int pos = pack.find(id);
+            if (pos >= 0) {
+                return pack.readEntry(pos);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns if any pack in packDir contains the object with id.
+     */
+    static boolean contains(File packDir, String id) {
+        for (Pack pack : packsIn(packDir)) {
+            if (pack.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds ids of all packed objects of type that start with prefix into result.
+     */
+    static void findByPrefix(File packDir, String prefix, byte type, Collection<String> result) {
+        for (Pack pack : packsIn(packDir)) {
+            for (int pos = pack.lowerBound(prefix);
+                 pos < pack.count && pack.compare(pos, prefix) == 0; pos += 1) {
+                if (pack.type(pos) == type) {
+                    result.add(pack.idAt(pos));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds ids of all packed objects of type into result.
+     */
+    static void idsOf(File packDir, byte type, Collection<String> result) {
+        forEachId(packDir, type, id -> {
+            result.add(id);
+            return true;
+        });
+    }
+
+    /**
+     * Calls action with the id of each packed object of type, until it
+     * returns false. Returns false if it was stopped.
+     */
+    static boolean forEachId(File packDir, byte type, Predicate<String> action) {
+        for (Pack pack : packsIn(packDir)) {
+            for (int pos = 0; pos < pack.count; pos += 1) {
+                if (pack.type(pos) == type && !action.test(pack.idAt(pos))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Migrates all loose commits, trees and blobs of the repository at gitletDir
+     * into a single new pack, merging existing packs into it as well.
+     * Loose files and old packs are removed afterwards.
+     */
+    static void repack(File gitletDir) {
+        File commitDir = join(gitletDir, "commits");
+        File blobDir = join(gitletDir, "blobs");
+        File treeDir = Tree.treeDirOf(gitletDir);
+        File packDir = join(gitletDir, "packs");
+        List<Pack> oldPacks = packsIn(packDir);
+
+        TreeMap<String, Byte> objects = new TreeMap<>();
+        for (Pack pack : oldPacks) {
+            for (int pos = 0; pos < pack.count; pos += 1) {
+                objects.put(pack.idAt(pos), pack.type(pos));
+            }
+        }
+        List<File> looseFiles = new ArrayList<>();
+        File[] commitSubDirs = commitDir.listFiles(File::isDirectory);
+        if (commitSubDirs != null) {
+            for (File subDir : commitSubDirs) {
+                for (String tail : plainFilenamesIn(subDir)) {
+                    objects.put(subDir.getName() + tail, COMMIT);
+                    looseFiles.add(join(subDir, tail));
+                }
+            }
+        }
+        addLoose(blobDir, BLOB, objects, looseFiles);
+        addLoose(treeDir, TREE, objects, looseFiles);
+        if (looseFiles.isEmpty() && oldPacks.size() <= 1) {
+            return;
+        }
+
+        packDir.mkdirs();
+        File tempPack = join(packDir, "tmp-pack");
+        File tempIndex = join(packDir, "tmp-idx");
+        Map<String, byte[]> deltas = chooseDeltas(commitDir, blobDir, objects);
+        write(tempPack, tempIndex, objects, Config.isCompressed(gitletDir), deltas,
+                id -> {
+                    switch (objects.get(id)) {
+                        case COMMIT:
+                            return Commit.getBytes(commitDir, id);
+                        case TREE:
+                            return Tree.read(treeDir, id);
+                        default:
+                            return Blob.get(blobDir, id);
+                    }
+                });
+
+        String name = "pack-" + sha1(objects.keySet().toArray());
+        File packFile = join(packDir, name + ".pack");
+        File indexFile = join(packDir, name + ".idx");
+        // Packs are found by their index, so the index is moved last. The new
+        // pack must be on disk before any old pack or loose object is gone.
+        try {
+            Files.move(tempPack.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempIndex.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.sync(List.of(packFile, indexFile));
+
+        for (Pack pack : oldPacks) {
+            pack.close();
+            if (!pack.packFile.equals(packFile)) {
+                pack.packFile.delete();
+                join(packDir, pack.packFile.getName().replace(".pack", ".idx")).delete();
+            }
+        }
+        synchronized (Pack.class) {
+            LOADED.remove(packDir);
+        }
+        Bloom.rebuild(gitletDir, objects.keySet());
+        for (File looseFile : looseFiles) {
+            looseFile.delete();
+        }
+        if (commitSubDirs != null) {
+            for (File subDir : commitSubDirs) {
+                subDir.delete(); // Only succeeds if it's empty now.
+            }
+        }
+    }
+
+    /**
+     * Adds the loose objects in dir, which are named by their ids, to objects
+     * as type, and their files to looseFiles.
+     */
+    private static void addLoose(File dir, byte type, TreeMap<String, Byte> objects,
+                                 List<File> looseFiles) {
+        List<String> names = plainFilenamesIn(dir);
+        if (names == null) {
+            return;
+        }
+        for (String id : names) {
+            if (id.length() != UID_LENGTH) {
+                continue; // A temporary file of an unfinished object.
+            }
+            objects.put(id, type);
+            looseFiles.add(join(dir, id));
+        }
+    }
+
+    /**
+     * Chooses blobs to pack as deltas, returns their stored contents (raw base
+     * id followed by the delta) by blob id.
+     * Successive versions of each file are found by walking commits in time
+     * order. The newest version stays whole, and each older version may be a
+     * delta against the next newer one, so recent versions are the fastest to
+     * read. A blob is only made a delta if it isn't a base yet, the chain stays
+     * within MAX_DEPTH, and the delta is less than half the size of the blob.
+     */
+    private static Map<String, byte[]> chooseDeltas(File commitDir, File blobDir,
+                                                    TreeMap<String, Byte> objects) {
+        List<Commit> commits = new ArrayList<>();
+        for (Map.Entry<String, Byte> entry : objects.entrySet()) {
+            if (entry.getValue() == COMMIT) {
+                commits.add(Commit.get(commitDir, entry.getKey()));
+            }
+        }
+        commits.sort(Comparator.comparingLong(Commit::getTimestamp));
+        HashMap<String, LinkedHashSet<String>> versions = new HashMap<>();
+        for (Commit commit : commits) {
+            for (String fileName : commit.files()) {
+                // A version that comes back is ordered by its last commit.
+                LinkedHashSet<String> fileVersions =
+                        versions.computeIfAbsent(fileName, name -> new LinkedHashSet<>());
+                String blobId = commit.getBlob(fileName);
+                fileVersions.remove(blobId);
+                fileVersions.add(blobId);
+            }
+        }
+
+        Map<String, byte[]> deltas = new HashMap<>();
+        HashMap<String, Integer> depths = new HashMap<>();
+        HashSet<String> decided = new HashSet<>();
+        for (LinkedHashSet<String> fileVersions : versions.values()) {
+            List<String> ids = new ArrayList<>(fileVersions);
+            byte[] newer = null;
+            for (int i = ids.size() - 2; i >= 0; i -= 1) {
+                String target = ids.get(i);
+                String base = ids.get(i + 1);
+                int depth = depths.getOrDefault(base, 0) + 1;
+                if (decided.contains(target) || depth > MAX_DEPTH
+                        || objects.get(target) != BLOB || objects.get(base) != BLOB) {
+                    newer = null;
+                    continue;
+                }
+                byte[] baseContent = newer != null ? newer : Blob.get(blobDir, base);
+                byte[] targetContent = Blob.get(blobDir, target);
+                byte[] delta = Delta.create(baseContent, targetContent);
+                if (delta.length < targetContent.length / 2) {
+                    ByteArrayOutputStream stored = new ByteArrayOutputStream();
+                    stored.writeBytes(hexToBytes(base));
+                    stored.writeBytes(delta);
+                    deltas.put(target, stored.toByteArray());
+                    depths.put(target, depth);
+                    decided.add(target);
+                    decided.add(base);
+                }
+                newer = targetContent;
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Reads content of an object by its id, used when writing packs.
+     */
+    interface ContentReader {
+        byte[] read(String id);
+    }
+
+    /**
+     * Writes objects (sorted ids to types) into a pack data file and its index,
+     * deflating their contents if deflate is true. Objects in deltas are
+     * written as the given delta instead of their content.
+     * The index is written last, so a pack without index is never read.
+     */
+    static void write(File packFile, File indexFile, TreeMap<String, Byte> objects,
+                      boolean deflate, Map<String, byte[]> deltas, ContentReader reader) {
+        int count = objects.size();
+        long[] offsets = new long[count];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(packFile)))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            int i = 0;
+            long offset = 12;
+            for (Map.Entry<String, Byte> entry : objects.entrySet()) {
+                byte[] content = deltas.get(entry.getKey());
+                byte type = entry.getValue();
+                if (content != null) {
+                    type |= DELTA;
+                } else {
+                    content = reader.read(entry.getKey());
+                }
+                if (deflate) {
+                    content = deflate(content);
+                    type |= DEFLATED;
+                }
+                offsets[i] = offset;
+                out.writeByte(type);
+                out.writeInt(content.length);
+                out.write(content);
+                offset += 5 + content.length;
+                i += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(IDS_START + count * (ID_BYTES + 1 + Long.BYTES));
+        index.putInt(INDEX_MAGIC).putInt(VERSION).putInt(count);
+        int[] fanout = new int[256];
+        for (String id : objects.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 0, total = 0; b < 256; b += 1) {
+            total += fanout[b];
+            index.putInt(total);
+        }
+        for (String id : objects.keySet()) {
+            index.put(hexToBytes(id));
+        }
+        for (byte type : objects.values()) {
+            index.put(type);
+        }
+        for (long offset : offsets) {
+            index.putLong(offset);
+        }
+        writeContents(indexFile, index.array());
+    }
+
+    /**
+     * Returns the position of the full id in this pack's index, or -1.
+     */
+    private int find(String id) {
+        int pos = lowerBound(id);
+        if (id.length() == UID_LENGTH && pos < count && compare(pos, id) == 0) {
+            return pos;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first position whose id is not less than the hex prefix,
+     * searching only the fanout range of the prefix's first byte.
+     */
+    private int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = count;
+        if (prefix.length() >= 2) {
+            int high = Character.digit(prefix.charAt(0), 16);
+            int low = Character.digit(prefix.charAt(1), 16);
+            if (high < 0 || low < 0) {
+                return count; // Not a hex id, so nothing matches.
+            }
+            int firstByte = (high << 4) | low;
+            lo = firstByte == 0 ? 0 : fanout(firstByte - 1);
+            hi = fanout(firstByte);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compares the id at position pos with the hex prefix, looking at only
+     * as many hex digits as the prefix has.
+     */
+    private int compare(int pos, String prefix) {
+        int base = IDS_START + pos * ID_BYTES;
+        for (int i = 0; i < prefix.length(); i += 1) {
+            int b = index.get(base + i / 2) & 0xff;
+            int nibble = (i % 2 == 0) ? b >>> 4 : b & 0xf;
+            int cmp = nibble - Character.digit(prefix.charAt(i), 16);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private int fanout(int firstByte) {
+        return index.getInt(FANOUT_START + firstByte * Integer.BYTES);
+    }
+
+    private byte type(int pos) {
+        return index.get(typesStart + pos);
+    }
+
+    /**
+     * Returns the hex id at position pos of this pack's index.
+     */
+    private String idAt(int pos) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(IDS_START + pos * ID_BYTES, id);
+        return bytesToHex(id, 0, ID_BYTES);
+    }
+
+    /**
+     * Reads the content of the entry at position pos of this pack's index.
+     */
+    private byte[] readEntry(int pos) {
+        try {
+            byte type;
+            byte[] content;
+            synchronized (this) {
+                if (data == null) {
+                    data = new RandomAccessFile(packFile, "r");
+                }
+                data.seek(index.getLong(offsetsStart + pos * Long.BYTES));
+                type = data.readByte();
+                content = new byte[data.readInt()];
+                data.readFully(content);
+            }
+            if ((type & DEFLATED) != 0) {
+                content = inflate(content);
+            }
+            if ((type & DELTA) != 0) {
+                return Delta.apply(getBase(bytesToHex(content, 0, ID_BYTES)), content, ID_BYTES);
+            }
+            return content;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the content of delta base id, from the cache of recently
+     * used bases if possible.
+     */
+    private byte[] getBase(String id) {
+        byte[] base;
+        synchronized (BASES) {
+            base = BASES.get(id);
+        }
+        if (base == null) {
+            base = read(packFile.getParentFile(), id);
+            synchronized (BASES) {
+                if (BASES.put(id, base) == null) {
+                    cachedBaseBytes += base.length;
+                }
+                Iterator<byte[]> eldest = BASES.values().iterator();
+                while (cachedBaseBytes > MAX_CACHED_BASES && eldest.hasNext()) {
+                    cachedBaseBytes -= eldest.next().length;
+                    eldest.remove();
+                }
+            }
+        }
+        return base;
+    }
+
+    private static byte[] deflate(byte[] content) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(result)) {
+            out.write(content);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] content) {
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(content))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private synchronized void close() {
+        if (data != null) {
+            try {
+                data.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            data = null;
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 
 import static gitlet.Repository.GITLET_DIR;
@@ -25,31 +21,14 @@ public class Remote {
      * Initializes remote file.
      */
     static void initRemote() {
-        writeObject(REMOTE_FILE, new HashMap<String, String>());
-    }
-
-    /**
-     * Copies f1's content to f2.
-     * former -> latter
-     */
-    private static void copy(File f1, File f2) {
-        if (!f2.exists()) {
-            createFile(f2);
-        }
-        Path srcPath = f1.toPath();
-        Path destPath = f2.toPath();
-        try {
-            Files.copy(srcPath, destPath, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        Journal.writeObject(REMOTE_FILE, new HashMap<String, String>());
     }
 
     /**
      * Gets all remote repositories.
      */
     static HashMap<String, String> getRemotes() {
-        return readObject(REMOTE_FILE, HashMap.class);
+        return Journal.readObject(REMOTE_FILE, HashMap.class);
     }
 
     /**
@@ -79,7 +58,7 @@ public class Remote {
     static void remoteAdd(String remoteName, String path) {
         HashMap<String, String> remotes = getRemotes();
         remotes.put(remoteName, geneticPath(path));
-        writeObject(REMOTE_FILE, remotes);
+        Journal.writeObject(REMOTE_FILE, remotes);
     }
 
     /**
@@ -88,7 +67,7 @@ public class Remote {
     static void remoteRemove(String remoteName) {
         HashMap<String, String> remotes = getRemotes();
         remotes.remove(remoteName);
-        writeObject(REMOTE_FILE, remotes);
+        Journal.writeObject(REMOTE_FILE, remotes);
     }
 
     static File remoteBlobDir(String remoteName) {
@@ -103,20 +82,6 @@ public class Remote {
         return join(remoteRepo(remoteName), "branches");
     }
 
-    /**
-     * Gets a blob's file from a remote repo with blobId.
-     */
-    private static File getBlobFile(String remoteName, String blobId) {
-        return Blob.get(remoteBlobDir(remoteName), blobId);
-    }
-
-    /**
-     * Gets a commit's file from a remote repo with commitId.
-     */
-    private static File getCommitFile(String remoteName, String commitId) {
-        return Commit.getCommitFile(remoteCommitDir(remoteName), commitId);
-    }
-
     /**
      * Gets a branch's file from a remote repo with branchName.
      */
@@ -128,14 +93,14 @@ public class Remote {
      * Returns if a branch named branchName exists in remote repository.
      */
     static boolean hasBranch(String remoteName, String branchName) {
-        return getBranchFile(remoteName, branchName).exists();
+        return Session.branchExists(getBranchFile(remoteName, branchName));
     }
 
     /**
      * A getBranch method for remote repository.
      */
     static Commit getBranch(String remoteName, String branchName) {
-        String commitId = readContentsAsString(getBranchFile(remoteName, branchName));
+        String commitId = Session.branch(getBranchFile(remoteName, branchName));
         return getCommit(remoteName, commitId);
     }
 
@@ -143,7 +108,7 @@ public class Remote {
      * A getCommit method for remote repository.
      */
     static Commit getCommit(String remoteName, String commitId) {
-        return Commit.toCommit(getCommitFile(remoteName, commitId));
+        return Commit.get(remoteCommitDir(remoteName), commitId);
     }
 
     /**
@@ -152,38 +117,4 @@ public class Remote {
     static void setBranch(String remoteName, String branchName, String commitId) {
         Branch.set(remoteBranchDir(remoteName), branchName, commitId);
     }
-
-    /**
-     * Copies a blob file from fromDir to toDir.
-     * Dir format: .../.gitlet/blobs
-     */
-    static void copyBlob(File fromDir, File toDir, String blobId) {
-        File fromFile = Blob.get(fromDir, blobId);
-        File toFile = join(toDir, blobId);
-        copy(fromFile, toFile);
-    }
-
-    /**
-     * Copies a commit from fromDir to toDir.
-     * Dir format: .../.gitlet
-     */
-    static void copyCommit(File fromDir, File toDir, String commitId) {
-        File fromCommitDir = join(fromDir, "commits");
-        File toCommitDir = join(toDir, "commits");
-        File fromFile = Commit.getCommitFile(fromCommitDir, commitId);
-        Commit commit = Commit.toCommit(fromFile);
-        File toSecondaryDir = join(toCommitDir, Commit.idHead(commit.id));
-        if (!toSecondaryDir.exists()) {
-            toSecondaryDir.mkdirs();
-        }
-        File toFile = join(toSecondaryDir, Commit.idTail(commit.id));
-        copy(fromFile, toFile);
-
-        File fromBlobDir = join(fromDir, "blobs");
-        File toBlobDir = join(toDir, "blobs");
-        for (String blobId : commit.blobs()) {
-            copyBlob(fromBlobDir, toBlobDir, blobId);
-        }
-    }
 }
-
@@ -1,10 +1,20 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 
@@ -29,26 +39,36 @@ public class Repository {
      * The stating area directory.
      */
     private static final File STAGING_DIR = join(GITLET_DIR, "stagingArea");
-    private static final File ADDITION_FILE = new File(STAGING_DIR, "addition");
-    private static final File REMOVAL_FILE = new File(STAGING_DIR, "removal");
+    static final File ADDITION_FILE = new File(STAGING_DIR, "addition");
+    static final File REMOVAL_FILE = new File(STAGING_DIR, "removal");
     /**
      * Head file.
      */
-    private static final File HEAD_FILE = new File(GITLET_DIR, "head");
+    static final File HEAD_FILE = new File(GITLET_DIR, "head");
+    /**
+     * Number of threads that scan files of the working directory, set by the
+     * system property gitlet.parallelism. 1 scans on the calling thread.
+     */
+    static final int PARALLELISM = Integer.getInteger("gitlet.parallelism",
+            Runtime.getRuntime().availableProcessors());
+    /**
+     * Fewer files than this are scanned on the calling thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 64;
+    private static ForkJoinPool scanPool;
 
     /**
-     * build gitlet system in CWD.
+     * build gitlet system in CWD. Blobs are stored deflated if compressed is true.
      */
-    public static void initRepository() {
+    public static void initRepository(boolean compressed) {
         GITLET_DIR.mkdirs();
+        Config.initConfig(compressed);
         Blob.BLOBS_DIR.mkdirs();
+        Tree.TREES_DIR.mkdirs();
+        Pack.PACKS_DIR.mkdirs();
         Branch.BRANCHES_DIR.mkdirs();
-        createFile(HEAD_FILE);
-        createFile(Remote.REMOTE_FILE);
         Remote.initRemote(); //EC
         STAGING_DIR.mkdirs();
-        createFile(ADDITION_FILE);
-        createFile(REMOVAL_FILE);
         clearStagingArea();
         Branch.set(Branch.DEFAULT_BRANCH, Commit.getInitialCommit());
         setHead(Branch.DEFAULT_BRANCH);
@@ -79,26 +99,25 @@ public class Repository {
      * Gets the commit that is pointed by head.
      */
     static Commit getHead() {
-        String branchName = readContentsAsString(HEAD_FILE);
-        return Branch.get(branchName);
+        return Branch.get(getBranch());
     }
 
     /**
      * Sets head to a specific branch.
      */
     static void setHead(String branchName) {
-        writeContents(HEAD_FILE, branchName);
+        Session.setHead(branchName);
     }
 
     /**
      * Gets branch name that head is on.
      */
     static String getBranch() {
-        return getBranch(HEAD_FILE);
+        return Session.head();
     }
 
     static String getBranch(File headFile) {
-        return readContentsAsString(headFile);
+        return Journal.readString(headFile);
     }
 
     /**
@@ -111,17 +130,19 @@ public class Repository {
     }
 
     /**
-     * Gets the HashMap of addition information from file.
+     * Gets the HashMap of addition information. It's read from file once per
+     * command, and the same map is returned after that: mark changes to it
+     * with Session.additionChanged().
      */
     static HashMap<String, String> getAddition() {
-        return readObject(ADDITION_FILE, HashMap.class);
+        return Session.addition();
     }
 
     /**
-     * Gets the HashSet of removal information from file.
+     * Gets the HashSet of removal information, like getAddition().
      */
     static HashSet<String> getRemoval() {
-        return readObject(REMOVAL_FILE, HashSet.class);
+        return Session.removal();
     }
 
     /**
@@ -130,7 +151,7 @@ public class Repository {
     static void removeFromAddition(String fileName) {
         HashMap<String, String> addition = getAddition();
         addition.remove(fileName);
-        writeObject(ADDITION_FILE, addition);
+        Session.additionChanged();
     }
 
     /**
@@ -139,7 +160,7 @@ public class Repository {
     static void removeFromRemoval(String fileName) {
         HashSet<String> removal = getRemoval();
         removal.remove(fileName);
-        writeObject(REMOVAL_FILE, removal);
+        Session.removalChanged();
     }
 
     /**
@@ -148,9 +169,39 @@ public class Repository {
      */
     static void stagingAdd(String fileName) {
         HashMap<String, String> addition = getAddition();
-        String blobId = Blob.createBlob(fileOf(fileName));
+        String blobId = StatIndex.blobIdOf(fileOf(fileName));
+        if (!Blob.exists(blobId)) {
+            blobId = Blob.createBlob(fileOf(fileName));
+        }
         addition.put(fileName, blobId);
-        writeObject(ADDITION_FILE, addition);
+        Session.additionChanged();
+    }
+
+    /**
+     * Stages files for addition at once. Files are hashed and stored as blobs
+     * in parallel, and the staging area is read and written only once.
+     * A file that's the same as in the current commit is unstaged instead.
+     * All files need to exist.
+     */
+    static void stagingAdd(List<String> fileNames) {
+        HashMap<String, String> addition = getAddition();
+        HashSet<String> removal = getRemoval();
+        Commit currentCommit = getHead();
+        List<String> blobIds = inParallel(fileNames, fileName -> {
+            File file = fileOf(fileName);
+            String blobId = StatIndex.blobIdOf(file);
+            return Blob.exists(blobId) ? blobId : Blob.createBlob(file);
+        });
+        for (int i = 0; i < fileNames.size(); i += 1) {
+            String fileName = fileNames.get(i);
+            addition.put(fileName, blobIds.get(i));
+            if (currentCommit.contains(fileName) && !currentCommit.isChanged(fileOf(fileName))) {
+                addition.remove(fileName);
+                removal.remove(fileName);
+            }
+        }
+        Session.additionChanged();
+        Session.removalChanged();
     }
 
     /**
@@ -159,7 +210,7 @@ public class Repository {
     static void stagingRemove(String fileName) {
         HashSet<String> removal = getRemoval();
         removal.add(fileName);
-        writeObject(REMOVAL_FILE, removal);
+        Session.removalChanged();
     }
 
     /**
@@ -176,18 +227,13 @@ public class Repository {
         Commit currentCommit = getHead();
         HashMap<String, String> addition = getAddition();
         HashSet<String> removal = getRemoval();
-        List<String> untrackedFiles = new LinkedList<>();
-        for (String fileName : files) {
-            /** Untracked files:
-             *  1. Untracked in current commit, unstaged for addition now;
-             *  2. Staged for removal now, but recreated (still in working directory).
-             */
-            if ((!currentCommit.contains(fileName) && !addition.containsKey(fileName))
-                    || removal.contains(fileName) && fileOf(fileName).exists()) {
-                untrackedFiles.add(fileName);
-            }
-        }
-        return untrackedFiles;
+        /** Untracked files:
+         *  1. Untracked in current commit, unstaged for addition now;
+         *  2. Staged for removal now, but recreated (still in working directory).
+         */
+        return scan(files, fileName ->
+                (!currentCommit.contains(fileName) && !addition.containsKey(fileName))
+                || removal.contains(fileName) && fileOf(fileName).exists());
     }
 
     /**
@@ -208,10 +254,7 @@ public class Repository {
      * Returns if a file with name fileName in the working directory is different from commit's.
      */
     static boolean different(Commit commit, String fileName) {
-        File commitFile = commit.getFile(fileName);
-        String commitFileContent = readContentsAsString(commitFile);
-        String workingFileContent = readContentsAsString(fileOf(fileName));
-        return !commitFileContent.equals(workingFileContent);
+        return !Blob.equals(commit.getBlob(fileName), fileOf(fileName));
     }
 
     /**
@@ -230,38 +273,91 @@ public class Repository {
         HashMap<String, String> addition = getAddition();
         HashSet<String> removal = getRemoval();
         Commit currentCommit = getHead();
-        HashSet<String> allFiles = new HashSet<>(files);
+        TreeSet<String> allFiles = new TreeSet<>(files);
         allFiles.addAll(addition.keySet());
         allFiles.addAll(currentCommit.files());
-        List<String> modifiedFiles = new LinkedList<>();
-        for (String fileName : allFiles) {
-            /** Modifications Not Staged:
-             *  1. Tracked in current commit, changed, but not staged;
-             *  2. Staged for addition, but now different from staged version;
-             *  3. Staged for addition, but removed in working directory;
-             *  4. Tracked in current commit, not staged for removal, but deleted.
-             */
+        /** Modifications Not Staged:
+         *  1. Tracked in current commit, changed, but not staged;
+         *  2. Staged for addition, but now different from staged version;
+         *  3. Staged for addition, but removed in working directory;
+         *  4. Tracked in current commit, not staged for removal, but deleted.
+         */
+        return scan(allFiles, fileName -> {
             File file = fileOf(fileName);
-            if ((currentCommit.contains(fileName) && file.exists()
+            return (currentCommit.contains(fileName) && file.exists()
                     && currentCommit.isChanged(file) && !addition.containsKey(fileName))
                     || (addition.containsKey(fileName) && !file.exists())
                     || (currentCommit.contains(fileName)
                     && !removal.contains(fileName) && !file.exists())
                     || (addition.containsKey(fileName) && file.exists()
-                    && differentFromAddition(fileName))
-            ) {
-                modifiedFiles.add(fileName);
-            }
+                    && !Blob.equals(addition.get(fileName), file));
+        });
+    }
+
+    /**
+     * Returns the blob id of each file the next commit would have, sorted
+     * by name: the head commit's files with the staging area applied.
+     */
+    static TreeMap<String, String> stagedFiles() {
+        TreeMap<String, String> files = getHead().sortedFiles();
+        files.keySet().removeAll(getRemoval());
+        files.putAll(getAddition());
+        return files;
+    }
+
+    /**
+     * Returns the blob id the content of each of fileNames that exists in
+     * the working directory would have, sorted by name.
+     */
+    static TreeMap<String, String> workingFiles(Collection<String> fileNames) {
+        List<String> existing = fileNames.stream().filter(Repository::isFileExist)
+                .collect(Collectors.toList());
+        List<String> blobIds = inParallel(existing,
+                fileName -> StatIndex.blobIdOf(fileOf(fileName)));
+        TreeMap<String, String> files = new TreeMap<>();
+        for (int i = 0; i < existing.size(); i += 1) {
+            files.put(existing.get(i), blobIds.get(i));
+        }
+        return files;
+    }
+
+    /**
+     * Returns the files for which test is true, in the order of files.
+     * Large lists are tested in parallel by the scan pool, since testing
+     * may stat and hash each file.
+     */
+    private static List<String> scan(Collection<String> files, Predicate<String> test) {
+        if (PARALLELISM <= 1 || files.size() < PARALLEL_THRESHOLD) {
+            return files.stream().filter(test).collect(Collectors.toList());
+        }
+        return scanPool().submit(() -> files.parallelStream().filter(test)
+                .collect(Collectors.toList())).join();
+    }
+
+    /**
+     * Returns the results of function on each of files, in the order of
+     * files. Large lists are processed in parallel by the scan pool.
+     */
+    private static <T> List<T> inParallel(List<String> files, Function<String, T> function) {
+        if (PARALLELISM <= 1 || files.size() < PARALLEL_THRESHOLD) {
+            return files.stream().map(function).collect(Collectors.toList());
         }
-        return modifiedFiles;
+        return scanPool().submit(() -> files.parallelStream().map(function)
+                .collect(Collectors.toList())).join();
+    }
+
+    private static synchronized ForkJoinPool scanPool() {
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool(PARALLELISM);
+        }
+        return scanPool;
     }
 
     /**
      * Clear the staging area.
      */
     static void clearStagingArea() {
-        writeObject(ADDITION_FILE, new HashMap<String, String>());
-        writeObject(REMOVAL_FILE, new HashSet<String>());
+        Session.setStaging(new HashMap<>(), new HashSet<>());
     }
 
     /**
@@ -283,7 +379,12 @@ public class Repository {
      * This will overwrite the file with same name in working directory.
      */
     static void checkout(Commit commit, String fileName) {
-        File blob = commit.getFile(fileName);
-        writeContents(fileOf(fileName), readContentsAsString(blob));
+        String blobId = commit.getBlob(fileName);
+        try (OutputStream out = Files.newOutputStream(fileOf(fileName).toPath())) {
+            Blob.writeTo(blobId, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        StatIndex.update(fileOf(fileName), blobId);
     }
 }
@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+/**
+ * Session holds the state one command works on: the branch head is on,
+ * the commits of branches, and the staging area. Each is read from its
+ * file when first used, and later uses get the same objects, so a command
+ * reads and deserializes each file at most once however often it asks.
+ *
+ * The staging area is changed in place. Changes are marked with
+ * additionChanged() and removalChanged(), and flush() writes what was
+ * changed once, when the command is done. Head and branches are written
+ * to the Journal as they're set, which keeps them in memory too.
+ *
+ * If the system property gitlet.stats is set, end() prints how many files
+ * of each kind the command read and wrote.
+ *
+ * @author xianzhe233
+ */
+public class Session {
+    private static final boolean STATS = System.getProperty("gitlet.stats") != null;
+
+    private static String headBranch;
+    /**
+     * Commit ids of branches by branch file, null for a branch that doesn't exist.
+     */
+    private static final HashMap<File, String> BRANCHES = new HashMap<>();
+    /**
+     * Commits of this repository that branches point at, by id.
+     */
+    private static final HashMap<String, Commit> COMMITS = new HashMap<>();
+    private static HashMap<String, String> addition;
+    private static HashSet<String> removal;
+    private static boolean additionChanged = false;
+    private static boolean removalChanged = false;
+
+    private static final TreeMap<String, Integer> READS = new TreeMap<>();
+    private static final TreeMap<String, Integer> WRITES = new TreeMap<>();
+
+    /**
+     * Returns the name of the branch head is on.
+     */
+    static synchronized String head() {
+        if (headBranch == null) {
+            headBranch = Journal.readString(Repository.HEAD_FILE);
+            countRead("head");
+        }
+        return headBranch;
+    }
+
+    static synchronized void setHead(String branchName) {
+        headBranch = branchName;
+        Journal.write(Repository.HEAD_FILE, branchName);
+        count(WRITES, "head");
+    }
+
+    /**
+     * Returns if branchFile exists.
+     */
+    static synchronized boolean branchExists(File branchFile) {
+        File key = Journal.keyOf(branchFile);
+        if (BRANCHES.containsKey(key)) {
+            return BRANCHES.get(key) != null;
+        }
+        return Journal.exists(branchFile);
+    }
+
+    /**
+     * Returns the commit id in branchFile, which must exist.
+     */
+    static synchronized String branch(File branchFile) {
+        File key = Journal.keyOf(branchFile);
+        String commitId = BRANCHES.get(key);
+        if (commitId == null) {
+            commitId = Journal.readString(branchFile);
+            BRANCHES.put(key, commitId);
+            countRead("branches");
+        }
+        return commitId;
+    }
+
+    static synchronized void setBranch(File branchFile, String commitId) {
+        BRANCHES.put(Journal.keyOf(branchFile), commitId);
+        Journal.write(branchFile, commitId);
+        count(WRITES, "branches");
+    }
+
+    static synchronized void removeBranch(File branchFile) {
+        BRANCHES.put(Journal.keyOf(branchFile), null);
+        Journal.delete(branchFile);
+        count(WRITES, "branches");
+    }
+
+    /**
+     * Returns the commit with id in this repository, read only once.
+     */
+    static synchronized Commit commit(String id) {
+        Commit commit = COMMITS.get(id);
+        if (commit == null) {
+            commit = Commit.get(Commit.COMMITS_DIR, id);
+            COMMITS.put(id, commit);
+        }
+        return commit;
+    }
+
+    static synchronized HashMap<String, String> addition() {
+        if (addition == null) {
+            addition = Journal.readObject(Repository.ADDITION_FILE, HashMap.class);
+            countRead("addition");
+        }
+        return addition;
+    }
+
+    static synchronized HashSet<String> removal() {
+        if (removal == null) {
+            removal = Journal.readObject(Repository.REMOVAL_FILE, HashSet.class);
+            countRead("removal");
+        }
+        return removal;
+    }
+
+    /**
+     * Replaces the staging area.
+     */
+    static synchronized void setStaging(HashMap<String, String> newAddition,
+                                        HashSet<String> newRemoval) {
+        addition = newAddition;
+        removal = newRemoval;
+        additionChanged = true;
+        removalChanged = true;
+    }
+
+    static synchronized void additionChanged() {
+        additionChanged = true;
+    }
+
+    static synchronized void removalChanged() {
+        removalChanged = true;
+    }
+
+    /**
+     * Writes the parts of the staging area that were changed to the Journal.
+     */
+    static synchronized void flush() {
+        if (additionChanged) {
+            Journal.writeObject(Repository.ADDITION_FILE, addition);
+            count(WRITES, "addition");
+        }
+        if (removalChanged) {
+            Journal.writeObject(Repository.REMOVAL_FILE, removal);
+            count(WRITES, "removal");
+        }
+        additionChanged = false;
+        removalChanged = false;
+    }
+
+    /**
+     * Counts a file of kind read from disk.
+     */
+    static synchronized void countRead(String kind) {
+        count(READS, kind);
+    }
+
+    /**
+     * Prints the counts of command if gitlet.stats is set, and forgets
+     * everything, so the next command reads files again.
+     */
+    static synchronized void end(String command) {
+        if (STATS) {
+            System.err.println("[" + command + "] reads " + READS + ", writes " + WRITES);
+        }
+        headBranch = null;
+        BRANCHES.clear();
+        COMMITS.clear();
+        addition = null;
+        removal = null;
+        additionChanged = false;
+        removalChanged = false;
+        READS.clear();
+        WRITES.clear();
+    }
+
+    private static void count(TreeMap<String, Integer> counts, String kind) {
+        counts.merge(kind, 1, Integer::sum);
+    }
+}
@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * StatIndex caches the blob id of every file in the working directory that
+ * has been hashed, together with the file's size, modification time and
+ * inode when it was hashed. While those stay the same, the cached id is used
+ * and the file's content isn't read, so status and checks of modification
+ * only read files that have changed.
+ *
+ * An entry is only trusted if the file was modified some time before the
+ * index was last saved, otherwise the file might have been modified again
+ * within the same timestamp ("racily clean"), and it's hashed again.
+ *
+ * Entries of files that are no longer in the working directory (deleted or
+ * renamed) are dropped when the index is saved.
+ *
+ * Files may be looked up from several threads at once.
+ *
+ * Index file: "GSTI" | version | time saved (ns) | count | entry...
+ *             entry = name | size | modified time (ns) | inode | blob id
+ *
+ * @author xianzhe233
+ */
+public class StatIndex {
+    /**
+     * The stat index file.
+     */
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "index");
+
+    private static final int MAGIC = 0x47535449; // "GSTI"
+    private static final int VERSION = 1;
+    /**
+     * How long before the index is saved a file must have been modified for
+     * its entry to be trusted. Covers coarse file system timestamps.
+     */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static volatile ConcurrentHashMap<String, Entry> entries;
+    private static long savedTime;
+    private static volatile boolean dirty = false;
+
+    /**
+     * Stat data and blob id of a file.
+     */
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final long inode;
+        private final String blobId;
+
+        Entry(long size, long modified, long inode, String blobId) {
+            this.size = size;
+            this.modified = modified;
+            this.inode = inode;
+            this.blobId = blobId;
+        }
+
+        boolean sameStat(Entry other) {
+            return size == other.size && modified == other.modified && inode == other.inode;
+        }
+    }
+
+    /**
+     * Returns the blob id of a file in the working directory, which must exist.
+     * The file is only hashed if its stat data differs from the cached entry.
+     */
+    static String blobIdOf(File file) {
+        load();
+        String fileName = file.getName();
+        Entry stat = stat(file, null);
+        Entry cached = entries.get(fileName);
+        if (cached != null && cached.sameStat(stat)
+                && cached.modified + RACY_NANOS <= savedTime) {
+            return cached.blobId;
+        }
+        // Stat is taken before hashing, so a change while hashing is noticed later.
+        String blobId = Blob.blobHash(file);
+        entries.put(fileName, new Entry(stat.size, stat.modified, stat.inode, blobId));
+        dirty = true;
+        return blobId;
+    }
+
+    /**
+     * Records that a file in the working directory was just written with the
+     * content of blob blobId, so it needn't be hashed later.
+     */
+    static void update(File file, String blobId) {
+        load();
+        entries.put(file.getName(), stat(file, blobId));
+        dirty = true;
+    }
+
+    /**
+     * Saves the index if any entry has changed, without the entries of files
+     * that are gone from the working directory.
+     */
+    static void save() {
+        if (!dirty) {
+            return;
+        }
+        List<String> workingFiles = plainFilenamesIn(Repository.CWD);
+        entries.keySet().retainAll(workingFiles == null
+                ? Collections.emptySet() : new HashSet<>(workingFiles));
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(INDEX_FILE.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(now);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry stat = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(stat.size);
+                out.writeLong(stat.modified);
+                out.writeLong(stat.inode);
+                out.write(hexToBytes(stat.blobId));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        savedTime = now;
+        dirty = false;
+    }
+
+    /**
+     * Reads the index file if it hasn't been read. A missing or unreadable
+     * index is treated as empty.
+     */
+    private static void load() {
+        if (entries == null) {
+            loadIndex();
+        }
+    }
+
+    private static synchronized void loadIndex() {
+        if (entries != null) {
+            return;
+        }
+        ConcurrentHashMap<String, Entry> loaded = new ConcurrentHashMap<>();
+        try {
+            readIndex(loaded);
+        } catch (IOException excp) {
+            loaded.clear();
+        }
+        entries = loaded;
+    }
+
+    private static void readIndex(Map<String, Entry> loaded) throws IOException {
+        if (!INDEX_FILE.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(INDEX_FILE.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            savedTime = in.readLong();
+            byte[] rawId = new byte[UID_LENGTH / 2];
+            for (int count = in.readInt(); count > 0; count -= 1) {
+                String fileName = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                long inode = in.readLong();
+                in.readFully(rawId);
+                loaded.put(fileName, new Entry(size, modified, inode,
+                        bytesToHex(rawId, 0, rawId.length)));
+            }
+        }
+    }
+
+    /**
+     * Returns the current stat data of file with blobId.
+     */
+    private static Entry stat(File file, String blobId) {
+        try {
+            Map<String, Object> attributes;
+            long inode = 0;
+            try {
+                attributes = Files.readAttributes(file.toPath(), "unix:size,lastModifiedTime,ino");
+                inode = (Long) attributes.get("ino");
+            } catch (UnsupportedOperationException excp) {
+                attributes = Files.readAttributes(file.toPath(), "size,lastModifiedTime");
+            }
+            long modified = ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS);
+            return new Entry((Long) attributes.get("size"), modified, inode, blobId);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
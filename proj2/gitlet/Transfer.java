@@ -0,0 +1,188 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static gitlet.Utils.*;
+
+/**
+ * Transfer copies commits with their trees and blobs from one repository
+ * to another, for push and fetch.
+ *
+ * Copying is pipelined: while the trees of the commits are walked for
+ * nodes the receiver doesn't have, the blobs of those nodes are already
+ * being copied by a fixed number of worker threads, as whole files
+ * (Files.copy) where both repositories store blobs the same way. Once all
+ * blobs are copied they're synced to disk, and only then are the tree
+ * nodes and commits written, children and parents first, so a commit
+ * never refers to a blob that could be lost.
+ *
+ * If the system property gitlet.stats is set, each transfer prints how many
+ * objects and bytes it wrote, and how fast.
+ *
+ * @author xianzhe233
+ */
+public class Transfer {
+    private static final boolean STATS = System.getProperty("gitlet.stats") != null;
+    /**
+     * Number of threads that copy blobs.
+     */
+    static final int WORKERS = Math.min(8, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private final File fromDir;
+    private final File toDir;
+    private final int workers;
+    /**
+     * Number of objects and bytes written, and nanoseconds taken.
+     */
+    private final AtomicLong objects = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private long nanos;
+
+    /**
+     * Makes a transfer from the repository at fromDir to the one at toDir
+     * that copies blobs with workers threads.
+     * Dir format: .../.gitlet
+     */
+    Transfer(File fromDir, File toDir, int workers) {
+        this.fromDir = fromDir;
+        this.toDir = toDir;
+        this.workers = workers;
+    }
+
+    /**
+     * Copies commits commitIds, parents before children, from the repository
+     * at fromDir to the one at toDir.
+     */
+    static void copyCommits(File fromDir, File toDir, List<String> commitIds) {
+        Transfer transfer = new Transfer(fromDir, toDir, WORKERS);
+        transfer.copy(commitIds);
+        if (STATS) {
+            System.err.println("[transfer] " + transfer.report());
+        }
+    }
+
+    /**
+     * Copies commits commitIds, parents before children. Packed objects are
+     * copied as loose ones. Tree nodes toDir already has aren't copied
+     * again, nor are the blobs under them.
+     */
+    void copy(List<String> commitIds) {
+        long start = System.nanoTime();
+        File fromCommitDir = join(fromDir, "commits");
+        File toCommitDir = join(toDir, "commits");
+        File fromBlobDir = join(fromDir, "blobs");
+        File toBlobDir = join(toDir, "blobs");
+        File fromTreeDir = Tree.treeDirOf(fromDir);
+        File toTreeDir = Tree.treeDirOf(toDir);
+
+        LinkedHashMap<Commit, byte[]> commits = new LinkedHashMap<>();
+        LinkedHashMap<String, byte[]> nodes = new LinkedHashMap<>();
+        HashSet<String> blobIds = new HashSet<>();
+        List<Future<?>> copies = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "gitlet-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (String commitId : commitIds) {
+                byte[] contents = Commit.getBytes(fromCommitDir, commitId);
+                Commit commit = Commit.decode(fromCommitDir, contents);
+                if (commit.hasTree()) {
+                    Tree.missing(fromTreeDir, toTreeDir, commit.tree(), nodes, blobId -> {
+                        if (blobIds.add(blobId)) {
+                            copies.add(pool.submit(() -> copyBlob(fromBlobDir, toBlobDir, blobId)));
+                        }
+                    });
+                } else {
+                    for (String blobId : commit.blobs()) {
+                        if (blobIds.add(blobId)) {
+                            copies.add(pool.submit(() -> copyBlob(fromBlobDir, toBlobDir, blobId)));
+                        }
+                    }
+                }
+                commits.put(commit, contents);
+            }
+            for (Future<?> copy : copies) {
+                await(copy);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Journal.syncObjects();
+
+        if (!nodes.isEmpty()) {
+            toTreeDir.mkdirs();
+        }
+        for (byte[] content : nodes.values()) {
+            Tree.save(toTreeDir, content);
+            written(content.length);
+        }
+        for (Map.Entry<Commit, byte[]> commit : commits.entrySet()) {
+            String id = commit.getKey().id;
+            byte[] contents = commit.getValue();
+            File toSecondaryDir = join(toCommitDir, Commit.idHead(id));
+            if (!toSecondaryDir.exists()) {
+                toSecondaryDir.mkdirs();
+            }
+            Bloom.added(toCommitDir, id);
+            MessageIndex.added(toCommitDir, commit.getKey());
+            Journal.saveObject(toCommitDir, join(toSecondaryDir, Commit.idTail(id)), contents);
+            written(contents.length);
+        }
+        nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the number of objects and bytes written, and the throughput.
+     */
+    String report() {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        return String.format("%d objects, %.2f MB in %.1f ms: %.0f objects/s, %.2f MB/s",
+                objects.get(), bytes.get() / 1e6, seconds * 1e3,
+                objects.get() / seconds, bytes.get() / 1e6 / seconds);
+    }
+
+    private void copyBlob(File fromBlobDir, File toBlobDir, String blobId) {
+        long length = Blob.copy(fromBlobDir, toBlobDir, blobId);
+        if (length > 0) {
+            written(length);
+        }
+    }
+
+    private void written(long length) {
+        objects.incrementAndGet();
+        bytes.addAndGet(length);
+    }
+
+    /**
+     * Waits for copy to finish, throwing what it threw.
+     */
+    private static void await(Future<?> copy) {
+        try {
+            copy.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage());
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/**
+ * Tree stores the files of a commit (file names to blob ids) as a tree of
+ * hashed nodes, so that commits share every node their files have in
+ * common, and a commit that changes a few files only writes the nodes on
+ * the paths to those files.
+ *
+ * Gitlet has no directories, so files are placed by the SHA-1 of their
+ * names: a node at depth d with more than MAX_LEAF files is an inner node
+ * whose i-th child holds the files whose name hash has hex digit i at
+ * position d. A node's shape depends only on the files under it, so the
+ * same files always give the same tree id.
+ *
+ * Leaf:  LEAF | count | file...        file = name | blob id
+ * Inner: INNER | children bitmask (2 bytes) | child...
+ *        child = node id | number of files under it
+ * Counts and string lengths are varints, ids are raw 20-byte SHA-1s, files
+ * are sorted by name. A node's id is the SHA-1 of its bytes, and nodes are
+ * stored like loose blobs in the trees directory, or in packs.
+ *
+ * @author xianzhe233
+ */
+public class Tree {
+    /**
+     * The trees directory.
+     */
+    static final File TREES_DIR = join(Repository.GITLET_DIR, "trees");
+
+    /**
+     * Most files in a leaf node.
+     */
+    private static final int MAX_LEAF = 64;
+    private static final byte LEAF = 0;
+    private static final byte INNER = 1;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int FANOUT = 16;
+
+    /**
+     * Id and number of files of a node, as referred to by its parent.
+     */
+    private static class Ref {
+        private final String id;
+        private final int count;
+
+        Ref(String id, int count) {
+            this.id = id;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Returns the trees directory of the repository at gitletDir.
+     */
+    static File treeDirOf(File gitletDir) {
+        return join(gitletDir, "trees");
+    }
+
+    /**
+     * Saves a tree of files (names to blob ids), returns its id.
+     */
+    static String build(File treeDir, Map<String, String> files) {
+        return build(treeDir, new TreeMap<>(files), 0).id;
+    }
+
+    /**
+     * Saves the tree that results from applying changes to tree treeId,
+     * returns its id. Changes map names to new blob ids, or to null for
+     * removed files. Only nodes on the paths to changed files are written.
+     */
+    static String update(File treeDir, String treeId, TreeMap<String, String> changes) {
+        return update(treeDir, treeId, 0, changes).id;
+    }
+
+    /**
+     * Returns blob id of fileName in tree treeId, or null if it isn't there.
+     */
+    static String get(File treeDir, String treeId, String fileName) {
+        String nameHash = sha1(fileName);
+        ByteBuffer node = ByteBuffer.wrap(read(treeDir, treeId));
+        for (int depth = 0; node.get() == INNER; depth += 1) {
+            Ref child = children(node)[digit(nameHash, depth)];
+            if (child == null) {
+                return null;
+            }
+            node = ByteBuffer.wrap(read(treeDir, child.id));
+        }
+        return leafEntries(node).get(fileName);
+    }
+
+    /**
+     * Puts all files of tree treeId into files.
+     */
+    static void readAll(File treeDir, String treeId, Map<String, String> files) {
+        ByteBuffer node = ByteBuffer.wrap(read(treeDir, treeId));
+        if (node.get() == LEAF) {
+            files.putAll(leafEntries(node));
+            return;
+        }
+        for (Ref child : children(node)) {
+            if (child != null) {
+                readAll(treeDir, child.id, files);
+            }
+        }
+    }
+
+    /**
+     * Puts the nodes of tree treeId in fromDir that toDir doesn't have into
+     * nodes, by id, children before their parents, and calls blobs with each
+     * blob id of their leaves. A node that toDir already has is skipped along
+     * with everything under it, blobs included, since nodes are always saved
+     * after their children and blobs. So is a node already in nodes.
+     */
+    static void missing(File fromDir, File toDir, String treeId,
+                        LinkedHashMap<String, byte[]> nodes, Consumer<String> blobs) {
+        if (nodes.containsKey(treeId) || exists(toDir, treeId)) {
+            return;
+        }
+        byte[] content = read(fromDir, treeId);
+        ByteBuffer node = ByteBuffer.wrap(content);
+        if (node.get() == INNER) {
+            for (Ref child : children(node)) {
+                if (child != null) {
+                    missing(fromDir, toDir, child.id, nodes, blobs);
+                }
+            }
+        } else {
+            leafEntries(node).values().forEach(blobs);
+        }
+        nodes.put(treeId, content);
+    }
+
+    /**
+     * Returns if tree node id exists in treeDir, either loose or packed.
+     */
+    static boolean exists(File treeDir, String id) {
+        return Bloom.mightExist(treeDir, id)
+                && (join(treeDir, id).exists() || Pack.contains(Pack.packDirOf(treeDir), id));
+    }
+
+    /**
+     * Returns the content of tree node id.
+     */
+    static byte[] read(File treeDir, String id) {
+        File treeFile = join(treeDir, id);
+        if (treeFile.exists()) {
+            return readContents(treeFile);
+        }
+        return Pack.read(Pack.packDirOf(treeDir), id);
+    }
+
+    private static Ref update(File treeDir, String id, int depth, TreeMap<String, String> changes) {
+        ByteBuffer node = ByteBuffer.wrap(read(treeDir, id));
+        if (node.get() == LEAF) {
+            TreeMap<String, String> files = leafEntries(node);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    files.remove(change.getKey());
+                } else {
+                    files.put(change.getKey(), change.getValue());
+                }
+            }
+            return build(treeDir, files, depth);
+        }
+
+        Ref[] children = children(node);
+        TreeMap<String, String>[] groups = split(changes, depth);
+        int count = 0;
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (!groups[i].isEmpty()) {
+                if (children[i] == null) {
+                    TreeMap<String, String> added = dropRemovals(groups[i]);
+                    children[i] = added.isEmpty() ? null : build(treeDir, added, depth + 1);
+                } else {
+                    children[i] = update(treeDir, children[i].id, depth + 1, groups[i]);
+                }
+                if (children[i] != null && children[i].count == 0) {
+                    children[i] = null;
+                }
+            }
+            count += children[i] == null ? 0 : children[i].count;
+        }
+        if (count <= MAX_LEAF) {
+            TreeMap<String, String> files = new TreeMap<>();
+            for (Ref child : children) {
+                if (child != null) {
+                    readAll(treeDir, child.id, files);
+                }
+            }
+            return build(treeDir, files, depth);
+        }
+        return saveInner(treeDir, children, count);
+    }
+
+    /**
+     * Saves files (sorted by name) as the node at depth, returns it.
+     */
+    private static Ref build(File treeDir, TreeMap<String, String> files, int depth) {
+        if (files.size() <= MAX_LEAF || depth == UID_LENGTH) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(LEAF);
+            writeVarint(out, files.size());
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                byte[] name = file.getKey().getBytes(StandardCharsets.UTF_8);
+                writeVarint(out, name.length);
+                out.writeBytes(name);
+                out.writeBytes(hexToBytes(file.getValue()));
+            }
+            return new Ref(save(treeDir, out.toByteArray()), files.size());
+        }
+        TreeMap<String, String>[] groups = split(files, depth);
+        Ref[] children = new Ref[FANOUT];
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (!groups[i].isEmpty()) {
+                children[i] = build(treeDir, groups[i], depth + 1);
+            }
+        }
+        return saveInner(treeDir, children, files.size());
+    }
+
+    private static Ref saveInner(File treeDir, Ref[] children, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(INNER);
+        int bitmask = 0;
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (children[i] != null) {
+                bitmask |= 1 << i;
+            }
+        }
+        out.write(bitmask >> 8);
+        out.write(bitmask);
+        for (Ref child : children) {
+            if (child != null) {
+                out.writeBytes(hexToBytes(child.id));
+                writeVarint(out, child.count);
+            }
+        }
+        return new Ref(save(treeDir, out.toByteArray()), count);
+    }
+
+    /**
+     * Saves a node unless it exists, returns its id.
+     */
+    static String save(File treeDir, byte[] content) {
+        String id = sha1(content);
+        if (exists(treeDir, id)) {
+            return id;
+        }
+        treeDir.mkdirs();
+        Bloom.added(treeDir, id);
+        Journal.saveObject(treeDir, join(treeDir, id), content);
+        return id;
+    }
+
+    /**
+     * Reads the files of a leaf node, after its kind byte.
+     */
+    private static TreeMap<String, String> leafEntries(ByteBuffer node) {
+        TreeMap<String, String> files = new TreeMap<>();
+        for (int count = readVarint(node); count > 0; count -= 1) {
+            int length = readVarint(node);
+            String name = new String(node.array(), node.position(), length, StandardCharsets.UTF_8);
+            node.position(node.position() + length);
+            files.put(name, bytesToHex(node.array(), node.position(), ID_BYTES));
+            node.position(node.position() + ID_BYTES);
+        }
+        return files;
+    }
+
+    /**
+     * Reads the children of an inner node, after its kind byte.
+     */
+    private static Ref[] children(ByteBuffer node) {
+        int bitmask = node.getShort() & 0xffff;
+        Ref[] children = new Ref[FANOUT];
+        for (int i = 0; i < FANOUT; i += 1) {
+            if ((bitmask & (1 << i)) != 0) {
+                String id = bytesToHex(node.array(), node.position(), ID_BYTES);
+                node.position(node.position() + ID_BYTES);
+                children[i] = new Ref(id, readVarint(node));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Splits files into groups by the digit at depth of their name hashes.
+     */
+    @SuppressWarnings("unchecked")
+    private static TreeMap<String, String>[] split(TreeMap<String, String> files, int depth) {
+        TreeMap<String, String>[] groups = (TreeMap<String, String>[]) new TreeMap<?, ?>[FANOUT];
+        for (int i = 0; i < FANOUT; i += 1) {
+            groups[i] = new TreeMap<>();
+        }
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            groups[digit(sha1(file.getKey()), depth)].put(file.getKey(), file.getValue());
+        }
+        return groups;
+    }
+
+    private static TreeMap<String, String> dropRemovals(TreeMap<String, String> changes) {
+        TreeMap<String, String> files = new TreeMap<>(changes);
+        files.values().removeIf(blobId -> blobId == null);
+        return files;
+    }
+
+    private static int digit(String hash, int depth) {
+        return Character.digit(hash.charAt(depth), 16);
+    }
+}
@@ -0,0 +1,169 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * UnifiedDiff prints how a file changed between two versions for diff, in
+ * the unified format: a header naming the file, then hunks of removed and
+ * added lines with CONTEXT unchanged lines around them.
+ *
+ * Versions are given by blob id, so versions with the same id are skipped
+ * without being read. The hunks printed for a pair of ids are cached, and
+ * printed again without reading or diffing the versions, which pays off
+ * when a Daemon serves diffs of the same files over and over. Versions in
+ * the working directory have the blob id their content would have.
+ *
+ * @author xianzhe233
+ */
+public class UnifiedDiff {
+    /**
+     * Number of unchanged lines printed around changed ones.
+     */
+    private static final int CONTEXT = 3;
+    /**
+     * Number of leading bytes in which a NUL byte marks a file as binary.
+     */
+    private static final int BINARY_CHECK_BYTES = 8000;
+    private static final long MAX_CACHED_BYTES = 16L << 20;
+
+    /**
+     * Printed hunks by "old id:new id", least recently used first.
+     */
+    private static final LinkedHashMap<String, byte[]> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    /**
+     * Prints the changes to file fileName from blob oldId to blob newId.
+     * Either id is null if the file is absent in that version. If
+     * newInWorkingDirectory is true, the new version is the file in the
+     * working directory, whose blob id is newId.
+     */
+    static void print(String fileName, String oldId, String newId,
+                      boolean newInWorkingDirectory, OutputStream out) throws IOException {
+        if (Objects.equals(oldId, newId)) {
+            return;
+        }
+        write(out, "diff a/" + fileName + " b/" + fileName + "\n");
+        write(out, "--- " + (oldId == null ? "/dev/null" : "a/" + fileName) + "\n");
+        write(out, "+++ " + (newId == null ? "/dev/null" : "b/" + fileName) + "\n");
+        String key = oldId + ":" + newId;
+        byte[] hunks;
+        synchronized (CACHE) {
+            hunks = CACHE.get(key);
+        }
+        if (hunks == null) {
+            byte[] oldContent = oldId == null ? new byte[0] : Blob.get(oldId);
+            byte[] newContent = newId == null ? new byte[0]
+                    : newInWorkingDirectory ? read(Repository.fileOf(fileName)) : Blob.get(newId);
+            hunks = hunks(fileName, oldContent, newContent);
+            // A working file may have changed since its id was taken.
+            if (!newInWorkingDirectory || Utils.sha1((Object) newContent).equals(newId)) {
+                cache(key, hunks);
+            }
+        }
+        out.write(hunks);
+    }
+
+    /**
+     * Returns the printed hunks that turn oldContent into newContent.
+     */
+    private static byte[] hunks(String fileName, byte[] oldContent, byte[] newContent)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (isBinary(oldContent) || isBinary(newContent)) {
+            write(out, "Binary files a/" + fileName + " and b/" + fileName + " differ\n");
+            return out.toByteArray();
+        }
+        Diff.Lines a = new Diff.Lines(oldContent);
+        Diff.Lines b = new Diff.Lines(newContent);
+        List<Diff.Hunk> hunks = Diff.diff(a, b);
+        int first = 0;
+        while (first < hunks.size()) {
+            // Hunks whose context would touch are printed as one.
+            int last = first;
+            while (last + 1 < hunks.size()
+                    && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Diff.Hunk firstHunk = hunks.get(first);
+            Diff.Hunk lastHunk = hunks.get(last);
+            int aFrom = Math.max(0, firstHunk.aStart - CONTEXT);
+            int aTo = Math.min(a.size(), lastHunk.aEnd + CONTEXT);
+            int bFrom = firstHunk.bStart - (firstHunk.aStart - aFrom);
+            int bTo = lastHunk.bEnd + (aTo - lastHunk.aEnd);
+            write(out, "@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@\n");
+            int pos = aFrom;
+            for (Diff.Hunk hunk : hunks.subList(first, last + 1)) {
+                writeLines(out, ' ', a, pos, hunk.aStart);
+                writeLines(out, '-', a, hunk.aStart, hunk.aEnd);
+                writeLines(out, '+', b, hunk.bStart, hunk.bEnd);
+                pos = hunk.aEnd;
+            }
+            writeLines(out, ' ', a, pos, aTo);
+            first = last + 1;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns lines from to to as a range of line numbers, "start,count".
+     */
+    private static String range(int from, int to) {
+        int count = to - from;
+        if (count == 0) {
+            return from + ",0";
+        }
+        return count == 1 ? String.valueOf(from + 1) : (from + 1) + "," + count;
+    }
+
+    private static void writeLines(OutputStream out, char prefix, Diff.Lines lines,
+                                   int from, int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            lines.write(i, i + 1, out);
+            if (lines.bytes[lines.start(i + 1) - 1] != '\n') {
+                write(out, "\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    private static boolean isBinary(byte[] content) {
+        for (int i = 0; i < Math.min(content.length, BINARY_CHECK_BYTES); i += 1) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void cache(String key, byte[] hunks) {
+        synchronized (CACHE) {
+            if (CACHE.put(key, hunks) == null) {
+                cachedBytes += hunks.length;
+            }
+            Iterator<byte[]> eldest = CACHE.values().iterator();
+            while (cachedBytes > MAX_CACHED_BYTES && eldest.hasNext()) {
+                cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}